@@ -0,0 +1,40 @@
+package net.onenandone.fralax.benchmark;
+
+import net.onenandone.fralax.DocumentGenerator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Provides the documents the benchmarks run on, fleets of vehicles and drivers written by {@link DocumentGenerator#fleet(Path, int, boolean)}
+ * with about 100 bytes per vehicle, so {@code 10} vehicles make a document of about 1 KB and {@code 3000000} vehicles one
+ * of about 300 MB. The documents are written once per JVM into the temporary directory.
+ */
+final class BenchmarkDocuments {
+
+    private static final Map<String, Path> DOCUMENTS = new ConcurrentHashMap<>();
+
+    private BenchmarkDocuments() {
+    }
+
+    /**
+     * @param vehicles   the number of vehicles in the document.
+     * @param namespaced whether the elements are qualified with the {@code f} prefix.
+     * @return the file of the document.
+     */
+    static Path fleet(final int vehicles, final boolean namespaced) {
+        return DOCUMENTS.computeIfAbsent(vehicles + (namespaced ? "-namespaced" : ""), name -> {
+            try {
+                final Path file = Files.createTempFile("fralax-benchmark-" + name + "-", ".xml");
+                file.toFile().deleteOnExit();
+                return DocumentGenerator.fleet(file, vehicles, namespaced);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,59 @@
+package net.onenandone.fralax.benchmark;
+
+import net.onenandone.fralax.Fralax;
+import net.onenandone.fralax.ManagedXmlContext;
+import net.onenandone.fralax.XmlContext;
+import net.onenandone.fralax.parser.VtdXmlParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the same query on a managed context and on its unmanaged snapshot from several threads, the difference is the
+ * read overhead of the management.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(4)
+public class ManagedReadBenchmark {
+
+    private ManagedXmlContext managed;
+    private XmlContext unmanaged;
+
+    @Setup
+    public void setUp() {
+        managed = Fralax.watch(BenchmarkDocuments.fleet(100, false).toString(), VtdXmlParser.class);
+        unmanaged = managed.unmanaged();
+    }
+
+    @TearDown
+    public void tearDown() {
+        managed.close();
+    }
+
+    @Benchmark
+    public Optional<XmlContext> selectManaged() {
+        return managed.select("//vehicle[@id='v42']/name/text()");
+    }
+
+    @Benchmark
+    public Optional<XmlContext> selectUnmanaged() {
+        return unmanaged.select("//vehicle[@id='v42']/name/text()");
+    }
+}
@@ -0,0 +1,57 @@
+package net.onenandone.fralax.benchmark;
+
+import net.onenandone.fralax.Fralax;
+import net.onenandone.fralax.XmlContext;
+import net.onenandone.fralax.parser.IndexedVtdXmlParser;
+import net.onenandone.fralax.parser.VtdHugeXmlParser;
+import net.onenandone.fralax.parser.VtdXmlParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses documents from about 1 KB to about 300 MB with each of the bundled parsers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class ParseBenchmark {
+
+    @Param({"10", "10000", "1000000", "3000000"})
+    public int vehicles;
+
+    private String file;
+
+    @Setup
+    public void setUp() {
+        file = BenchmarkDocuments.fleet(vehicles, false).toString();
+    }
+
+    @Benchmark
+    public XmlContext parse() {
+        return Fralax.parse(file, VtdXmlParser.class);
+    }
+
+    @Benchmark
+    public XmlContext parseIndexed() {
+        return Fralax.parse(file, IndexedVtdXmlParser.class);
+    }
+
+    @Benchmark
+    public XmlContext parseHuge() {
+        return Fralax.parse(file, VtdHugeXmlParser.class);
+    }
+}
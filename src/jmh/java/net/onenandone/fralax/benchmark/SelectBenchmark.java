@@ -0,0 +1,107 @@
+package net.onenandone.fralax.benchmark;
+
+import net.onenandone.fralax.Fralax;
+import net.onenandone.fralax.XmlContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluates simple, descendant, predicate (also answered by an attribute index), namespaced and columnar queries on documents from about 1 KB to about 100 MB.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class SelectBenchmark {
+
+    @Param({"10", "10000", "1000000"})
+    public int vehicles;
+
+    private XmlContext xml;
+    private XmlContext namespacedXml;
+    private XmlContext indexedXml;
+    private String lastVehicle;
+
+    @Setup
+    public void setUp() {
+        xml = Fralax.parse(BenchmarkDocuments.fleet(vehicles, false).toString());
+        namespacedXml = Fralax.parse(BenchmarkDocuments.fleet(vehicles, true).toString());
+        indexedXml = Fralax.parse(BenchmarkDocuments.fleet(vehicles, false).toString()).indexAttribute("vehicle", "id");
+        lastVehicle = "v" + (vehicles - 1);
+    }
+
+    @Benchmark
+    public Optional<XmlContext> selectSimple() {
+        return xml.select("/fleet/vehicle[1]/name/text()");
+    }
+
+    @Benchmark
+    public List<XmlContext> selectAllSimple() {
+        return xml.selectAll("/fleet/vehicle");
+    }
+
+    @Benchmark
+    public List<XmlContext> selectAllDescendant() {
+        return xml.selectAll("//name");
+    }
+
+    @Benchmark
+    public Optional<XmlContext> selectPredicate() {
+        return xml.select("//vehicle[@id='" + lastVehicle + "']");
+    }
+
+    @Benchmark
+    public Optional<XmlContext> selectPredicateIndexed() {
+        return indexedXml.select("//vehicle[@id='" + lastVehicle + "']");
+    }
+
+    @Benchmark
+    public Optional<XmlContext> selectPredicateFromContext() {
+        return xml.select("//vehicle[@id='" + lastVehicle + "']").get().select("seats/text()");
+    }
+
+    @Benchmark
+    public int[] selectInts() {
+        return xml.selectInts("/fleet/vehicle/seats/text()");
+    }
+
+    @Benchmark
+    public String[][] selectColumns() {
+        return xml.selectColumns("/fleet/vehicle", "@id", "name/text()", "seats/text()");
+    }
+
+    @Benchmark
+    public List<XmlContext> selectAllNamespaced() {
+        return namespacedXml.selectAll("//f:vehicle/f:name");
+    }
+
+    @Benchmark
+    public Optional<XmlContext> selectCount() {
+        return xml.select("count(//vehicle)");
+    }
+
+    @Benchmark
+    public int count() {
+        return xml.count("//vehicle");
+    }
+
+    @Benchmark
+    public boolean exists() {
+        return xml.exists("//vehicle");
+    }
+}
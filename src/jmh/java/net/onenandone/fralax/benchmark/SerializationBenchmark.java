@@ -0,0 +1,66 @@
+package net.onenandone.fralax.benchmark;
+
+import net.onenandone.fralax.Fralax;
+import net.onenandone.fralax.XmlContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transforms a single element and the complete document (about 1 KB to about 10 MB) to string.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class SerializationBenchmark {
+
+    @Param({"10", "10000", "100000"})
+    public int vehicles;
+
+    private XmlContext xml;
+    private XmlContext vehicle;
+
+    @Setup
+    public void setUp() {
+        xml = Fralax.parse(BenchmarkDocuments.fleet(vehicles, false).toString());
+        vehicle = xml.select("//vehicle[@id='v0']").get();
+    }
+
+    @Benchmark
+    public String elementAsString() {
+        return vehicle.asString(false);
+    }
+
+    @Benchmark
+    public String elementAsFormattedString() {
+        return vehicle.asString(true);
+    }
+
+    @Benchmark
+    public String elementAsFragment() {
+        return vehicle.asFragment();
+    }
+
+    @Benchmark
+    public String documentAsString() {
+        return xml.asString(false);
+    }
+
+    @Benchmark
+    public String documentAsFormattedString() {
+        return xml.asString(true);
+    }
+}
@@ -0,0 +1,42 @@
+package net.onenandone.fralax;
+
+import java.util.Objects;
+
+/**
+ * A handle for an xpath query that has been compiled by an {@link XmlContext}, see {@link XmlContext#compile(String)}.
+ * Handles are only created by {@link XmlContext#compile(String)}: parsers that compile queries extend the handle to own
+ * the compiled query, so selecting with it skips parsing the query for as long as the handle is referenced.
+ */
+public class CompiledXPath {
+
+    private final String xpath;
+
+    /**
+     * @param xpath the xpath query.
+     */
+    protected CompiledXPath(final String xpath) {
+        this.xpath = Objects.requireNonNull(xpath, "the xpath may not be null");
+    }
+
+    /**
+     * @return the xpath query.
+     */
+    public final String getXPath() {
+        return xpath;
+    }
+
+    @Override
+    public final boolean equals(final Object other) {
+        return this == other || other instanceof CompiledXPath && xpath.equals(((CompiledXPath) other).xpath);
+    }
+
+    @Override
+    public final int hashCode() {
+        return xpath.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return xpath;
+    }
+}
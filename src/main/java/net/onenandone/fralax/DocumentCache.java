@@ -0,0 +1,278 @@
+package net.onenandone.fralax;
+
+import net.onenandone.fralax.parser.FileChecksum;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A process-wide, least recently used cache of parsed documents used by {@link Fralax#parse(String, Class)}. Documents
+ * are keyed by the canonical path, size, modification time and {@link FileChecksum checksum} of their file and the parser
+ * they were parsed with, so a changed file is parsed again. Callers parsing the same file concurrently wait for a single
+ * parse. The cache is bounded by the total memory retained by the cached documents in bytes, as reported by
+ * {@link XmlContext#getRetainedBytes()} (for the bundled parsers the document and its VTD index), and disabled by default, e.g.
+ * <pre>
+ * {@code
+ * Fralax.getDocumentCache().setMaximumBytes(512 * 1024 * 1024);
+ * XmlContext xml = Fralax.parse(fileToParse); //parsed once, shared by all callers while the file does not change
+ * }
+ * </pre>
+ * Cached contexts are shared, which is safe as the documents of the bundled parsers never change. Their settings do
+ * belong to the shared document though: a {@link XmlContext#enableResultCache(int) result cache} or an
+ * {@link XmlContext#indexAttribute(String, String) attribute index} enabled by one caller applies to all callers of the
+ * cached document.
+ */
+public final class DocumentCache {
+
+    private final Map<Key, Entry> documents = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private long bytes;
+    private volatile long maximumBytes;
+
+    DocumentCache() {
+    }
+
+    /**
+     * Returns the cached document of the file or parses it if it is not cached.
+     *
+     * @param file           the file to parse.
+     * @param xmlParserClass the class of the specific parser to parse with.
+     * @return the parsed document.
+     * @throws FralaxException thrown when the file can not be parsed.
+     */
+    XmlContext get(final String file, final Class<? extends XmlParser> xmlParserClass) throws FralaxException {
+        if (maximumBytes == 0) {
+            return Fralax.newParser(xmlParserClass).parse(file);
+        }
+        final Key key;
+        try {
+            final Path path = Paths.get(file).toRealPath();
+            final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            key = new Key(path, attributes.size(), attributes.lastModifiedTime().toMillis(), FileChecksum.of(path.toFile(), attributes.size()),
+                    xmlParserClass);
+        } catch (final IOException e) {
+            // let the parser report the missing file
+            return Fralax.newParser(xmlParserClass).parse(file);
+        }
+        if (key.size > maximumBytes) {
+            return Fralax.newParser(xmlParserClass).parse(file);
+        }
+
+        final Entry entry;
+        final boolean loading;
+        synchronized (documents) {
+            final Entry cached = documents.get(key);
+            loading = cached == null;
+            if (loading) {
+                // weighed by the size of the file until the document is parsed
+                entry = new Entry(key.size);
+                removeOtherVersions(key);
+                documents.put(key, entry);
+                bytes += entry.weight;
+                evict();
+            } else {
+                entry = cached;
+            }
+        }
+        if (!loading) {
+            hits.incrementAndGet();
+            try {
+                return entry.document.join();
+            } catch (final CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        misses.incrementAndGet();
+        try {
+            final XmlContext document = Fralax.newParser(xmlParserClass).parse(key.path.toString());
+            entry.document.complete(document);
+            weigh(key, entry, document.getRetainedBytes());
+            return document;
+        } catch (final RuntimeException e) {
+            synchronized (documents) {
+                if (documents.remove(key, entry)) {
+                    bytes -= entry.weight;
+                }
+            }
+            entry.document.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Replaces the size of the file a parsed document has been weighed by so far with the memory it retains, unless the
+     * document can not tell.
+     */
+    private void weigh(final Key key, final Entry entry, final long retainedBytes) {
+        if (retainedBytes < 0) {
+            return;
+        }
+        synchronized (documents) {
+            if (documents.get(key) == entry) {
+                bytes += retainedBytes - entry.weight;
+                entry.weight = retainedBytes;
+                evict();
+            }
+        }
+    }
+
+    /** Removes the entries of former versions of the file of the key, guarded by {@link #documents}. */
+    private void removeOtherVersions(final Key key) {
+        final Iterator<Map.Entry<Key, Entry>> entries = documents.entrySet().iterator();
+        while (entries.hasNext()) {
+            final Map.Entry<Key, Entry> cached = entries.next();
+            if (cached.getKey().path.equals(key.path) && cached.getKey().xmlParserClass == key.xmlParserClass) {
+                entries.remove();
+                bytes -= cached.getValue().weight;
+            }
+        }
+    }
+
+    /** Evicts least recently used documents until the cache fits into its budget, guarded by {@link #documents}. */
+    private void evict() {
+        final Iterator<Entry> entries = documents.values().iterator();
+        while (bytes > maximumBytes && entries.hasNext()) {
+            final Entry eldest = entries.next();
+            entries.remove();
+            bytes -= eldest.weight;
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the number of parses answered by a cached document.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of parses that had to parse the file while the cache was enabled.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of documents evicted to stay within the budget.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of documents currently cached.
+     */
+    public int getSize() {
+        synchronized (documents) {
+            return documents.size();
+        }
+    }
+
+    /**
+     * @return the total memory retained by the documents currently cached in bytes.
+     */
+    public long getBytes() {
+        synchronized (documents) {
+            return bytes;
+        }
+    }
+
+    /**
+     * @return the maximum total memory retained by the cached documents in bytes.
+     */
+    public long getMaximumBytes() {
+        return maximumBytes;
+    }
+
+    /**
+     * Sets the maximum total memory retained by the cached documents, least recently used documents are evicted first.
+     * Files larger than the budget are never cached, documents that turn out to retain more than the budget once parsed
+     * are evicted right away.
+     *
+     * @param maximumBytes the budget in bytes, {@code 0} disables caching.
+     */
+    public void setMaximumBytes(final long maximumBytes) {
+        if (maximumBytes < 0) {
+            throw new IllegalArgumentException("the maximum bytes may not be negative");
+        }
+        synchronized (documents) {
+            this.maximumBytes = maximumBytes;
+            evict();
+        }
+    }
+
+    /** Removes all documents and resets the statistics. */
+    public void clear() {
+        synchronized (documents) {
+            documents.clear();
+            bytes = 0;
+        }
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    /**
+     * A document that is cached or being parsed.
+     */
+    private static final class Entry {
+        private final CompletableFuture<XmlContext> document = new CompletableFuture<>();
+        /** The memory retained by the document in bytes, guarded by {@link DocumentCache#documents}. */
+        private long weight;
+
+        private Entry(final long weight) {
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Identifies a version of a file parsed with a parser.
+     */
+    private static final class Key {
+
+        private final Path path;
+        private final long size;
+        private final long lastModified;
+        private final long checksum;
+        private final Class<? extends XmlParser> xmlParserClass;
+
+        private Key(final Path path, final long size, final long lastModified, final long checksum, final Class<? extends XmlParser> xmlParserClass) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+            this.xmlParserClass = xmlParserClass;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return size == key.size && lastModified == key.lastModified && checksum == key.checksum && path.equals(key.path)
+                    && xmlParserClass == key.xmlParserClass;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, size, lastModified, checksum, xmlParserClass);
+        }
+    }
+}
@@ -2,7 +2,12 @@ package net.onenandone.fralax;
 
 import net.onenandone.fralax.parser.VtdXmlParser;
 
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Factory used to create the default (Vtd) XMLParser or a specific parser.
@@ -11,6 +16,9 @@ import java.util.Objects;
 @SuppressWarnings("WeakerAccess")
 public class Fralax {
 
+    private static final DocumentCache DOCUMENT_CACHE = new DocumentCache();
+    private static volatile FralaxMetrics metrics = FralaxMetrics.NOOP;
+
     /**
      * @param file file to parse.
      * @return a new searchable XmlContext of the contents of the file if parsing was successful.
@@ -24,6 +32,8 @@ public class Fralax {
     /**
      * Creates a new FraLaX-API-fitting XmlParser with the passed file and parserClass.
      * Requires passed xmlParserClass to implement and have visible default constructor.
+     * If the {@link #getDocumentCache() document cache} is enabled, the document is taken from the cache as long as the
+     * file did not change.
      *
      * @param file           file to parse.
      * @param xmlParserClass the class of the specific parser to create.
@@ -31,10 +41,138 @@ public class Fralax {
      */
     public static XmlContext parse(final String file, final Class<? extends XmlParser> xmlParserClass) {
         Objects.requireNonNull(file, "the xml file may not be null");
+        Objects.requireNonNull(xmlParserClass, "the xml parser class may not be null");
+        return DOCUMENT_CACHE.get(file, xmlParserClass);
+    }
+
+    /**
+     * @param file file to parse.
+     * @return a new searchable XmlContext of the contents of the file if parsing was successful.
+     * @see #parse(Path, Class)
+     */
+    public static XmlContext parse(final Path file) {
+        return parse(file, VtdXmlParser.class);
+    }
+
+    /**
+     * Creates a new FraLaX-API-fitting XmlParser and parses the passed file with it.
+     *
+     * @param file           file to parse.
+     * @param xmlParserClass the class of the specific parser to create.
+     * @return a new searchable XmlContext of the contents of the file if parsing was successful.
+     * @see #parse(String, Class)
+     */
+    public static XmlContext parse(final Path file, final Class<? extends XmlParser> xmlParserClass) {
+        Objects.requireNonNull(file, "the xml file may not be null");
+        if (DOCUMENT_CACHE.getMaximumBytes() > 0 && file.getFileSystem() == FileSystems.getDefault()) {
+            return parse(file.toString(), xmlParserClass);
+        }
+        return newParser(xmlParserClass).parse(file);
+    }
+
+    /**
+     * @param xml in-memory document to parse, must not be modified afterwards.
+     * @return a new searchable XmlContext of the document if parsing was successful.
+     * @see #parse(byte[], Class)
+     */
+    public static XmlContext parse(final byte[] xml) {
+        return parse(xml, VtdXmlParser.class);
+    }
+
+    /**
+     * Creates a new FraLaX-API-fitting XmlParser and parses the passed in-memory document with it, without writing it to disk.
+     *
+     * @param xml            in-memory document to parse, must not be modified afterwards.
+     * @param xmlParserClass the class of the specific parser to create.
+     * @return a new searchable XmlContext of the document if parsing was successful.
+     * @see XmlParser#parse(byte[])
+     */
+    public static XmlContext parse(final byte[] xml, final Class<? extends XmlParser> xmlParserClass) {
+        Objects.requireNonNull(xml, "the xml document may not be null");
+        return newParser(xmlParserClass).parse(xml);
+    }
+
+    /**
+     * @param xml in-memory document to parse (the remaining bytes of the buffer).
+     * @return a new searchable XmlContext of the document if parsing was successful.
+     * @see #parse(ByteBuffer, Class)
+     */
+    public static XmlContext parse(final ByteBuffer xml) {
+        return parse(xml, VtdXmlParser.class);
+    }
+
+    /**
+     * Creates a new FraLaX-API-fitting XmlParser and parses the passed in-memory document with it, without writing it to disk.
+     *
+     * @param xml            in-memory document to parse (the remaining bytes of the buffer).
+     * @param xmlParserClass the class of the specific parser to create.
+     * @return a new searchable XmlContext of the document if parsing was successful.
+     * @see XmlParser#parse(ByteBuffer)
+     */
+    public static XmlContext parse(final ByteBuffer xml, final Class<? extends XmlParser> xmlParserClass) {
+        Objects.requireNonNull(xml, "the xml document may not be null");
+        return newParser(xmlParserClass).parse(xml);
+    }
+
+    /**
+     * @param xml stream to read the document from, it is read completely but not closed.
+     * @return a new searchable XmlContext of the document if parsing was successful.
+     * @see #parse(InputStream, Class)
+     */
+    public static XmlContext parse(final InputStream xml) {
+        return parse(xml, VtdXmlParser.class);
+    }
+
+    /**
+     * Creates a new FraLaX-API-fitting XmlParser and parses the document read from the stream with it, without writing it to disk.
+     *
+     * @param xml            stream to read the document from, it is read completely but not closed.
+     * @param xmlParserClass the class of the specific parser to create.
+     * @return a new searchable XmlContext of the document if parsing was successful.
+     * @see XmlParser#parse(InputStream)
+     */
+    public static XmlContext parse(final InputStream xml, final Class<? extends XmlParser> xmlParserClass) {
+        Objects.requireNonNull(xml, "the xml stream may not be null");
+        return newParser(xmlParserClass).parse(xml);
+    }
+
+    /**
+     * Returns the process-wide cache of documents parsed from files, e.g. to enable it by setting a budget or to inspect
+     * its statistics. The cache is disabled by default.
+     *
+     * @return the document cache.
+     */
+    public static DocumentCache getDocumentCache() {
+        return DOCUMENT_CACHE;
+    }
+
+    /**
+     * @return the process-wide metrics, {@link FralaxMetrics#NOOP} unless others have been set.
+     */
+    public static FralaxMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the process-wide metrics that receive the timings and sizes of parses, queries, transformations to string and
+     * reloads, e.g. {@link HistogramMetrics}.
+     *
+     * @param metrics the metrics, {@link FralaxMetrics#NOOP} to stop recording.
+     */
+    public static void setMetrics(final FralaxMetrics metrics) {
+        Fralax.metrics = Objects.requireNonNull(metrics, "the metrics may not be null");
+    }
+
+    /**
+     * Instantiates the passed parser class using its default constructor.
+     *
+     * @param xmlParserClass the class of the specific parser to create.
+     * @return the new parser.
+     */
+    static XmlParser newParser(final Class<? extends XmlParser> xmlParserClass) {
         Objects.requireNonNull(xmlParserClass, "the xml parser class may not be null");
         try {
-            final XmlParser xmlParser = xmlParserClass.newInstance();
-            return xmlParser.parse(file);
+            return xmlParserClass.newInstance();
         } catch (final InstantiationException | IllegalAccessException e) {
             throw new FralaxException("could not instantiate xml parser class '" + xmlParserClass.getCanonicalName() + "'", e);
         }
@@ -42,13 +180,30 @@ public class Fralax {
 
     /**
      * Returns a managed context. It will reload the internal XML representation on an external change in the parsed file. Make sure
-     * to read {@link ManagedXmlContext#unmanaged()} for further information on management.
+     * to read {@link ManagedXmlContext#unmanaged()} for further information on management. The file is watched by the
+     * {@link FralaxWatchRegistry#getDefault() default registry}, use a {@link FralaxWatchRegistry} of your own to control
+     * the number of reload threads.
      * @param file           file to parse.
      * @param xmlParserClass the class of the specific parser to create.
      * @return a managed context if {@code managed} is set to {@code true}, otherwise the same context {@link #parse(String, Class)} would return
      */
     public static ManagedXmlContext watch(final String file, final Class<? extends XmlParser> xmlParserClass) {
-        return new ManagedXmlContext(file, xmlParserClass);
+        return watch(file, xmlParserClass, ManagedXmlContext.DEFAULT_DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns a managed context like {@link #watch(String, Class)}, which waits for the passed delay after a change of the
+     * file before it reloads it. Further changes within the delay restart it, so a file written in several steps is only
+     * parsed once it is complete.
+     *
+     * @param file           file to parse.
+     * @param xmlParserClass the class of the specific parser to create.
+     * @param debounce       the delay after the last change before the file is reloaded, {@code 0} to reload right away.
+     * @param unit           the unit of the delay.
+     * @return a managed context.
+     */
+    public static ManagedXmlContext watch(final String file, final Class<? extends XmlParser> xmlParserClass, final long debounce, final TimeUnit unit) {
+        return FralaxWatchRegistry.getDefault().register(file, xmlParserClass, debounce, unit);
     }
 
 }
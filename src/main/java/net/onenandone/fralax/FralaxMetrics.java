@@ -0,0 +1,55 @@
+package net.onenandone.fralax;
+
+/**
+ * Receives timings and sizes of the work done by fralax, e.g. to export them to a monitoring system. Register an
+ * implementation with {@link Fralax#setMetrics(FralaxMetrics)}, all methods do nothing by default. The methods are called
+ * on the hot path of parsing and querying by many threads at once, implementations must therefore be thread-safe and
+ * should neither block nor allocate, see {@link HistogramMetrics}.
+ */
+public interface FralaxMetrics {
+
+    /** The metrics used unless others are registered, records nothing. */
+    FralaxMetrics NOOP = new FralaxMetrics() {
+    };
+
+    /**
+     * Called after a document has been parsed.
+     *
+     * @param xmlParserClass the class of the parser.
+     * @param nanos          the duration of the parse in nanoseconds.
+     * @param bytes          the size of the document in bytes.
+     * @param tokens         the number of tokens of the document.
+     */
+    default void parsed(final Class<? extends XmlParser> xmlParserClass, final long nanos, final long bytes, final long tokens) {
+    }
+
+    /**
+     * Called after an xpath query has been evaluated by {@link XmlContext#selectAll(String)} (and therefore
+     * {@link XmlContext#select(String)}).
+     *
+     * @param xpath   the xpath as passed by the caller.
+     * @param nanos   the duration of the evaluation in nanoseconds.
+     * @param results the number of results.
+     */
+    default void queried(final String xpath, final long nanos, final int results) {
+    }
+
+    /**
+     * Called after a context has been transformed by {@link XmlContext#asString(boolean)}.
+     *
+     * @param nanos      the duration of the transformation in nanoseconds.
+     * @param characters the length of the resulting string.
+     */
+    default void serialized(final long nanos, final int characters) {
+    }
+
+    /**
+     * Called after a {@link ManagedXmlContext} tried to reload its file.
+     *
+     * @param file    the reloaded file.
+     * @param nanos   the duration of the reload in nanoseconds.
+     * @param success whether the new version has been swapped in, {@code false} if it failed to parse.
+     */
+    default void reloaded(final String file, final long nanos, final boolean success) {
+    }
+}
@@ -0,0 +1,366 @@
+package net.onenandone.fralax;
+
+import net.onenandone.fralax.parser.VtdXmlParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches any number of files for {@link ManagedXmlContext}s with a single watcher thread and reloads them on a shared,
+ * bounded pool of reload threads. E.g.
+ * <pre>
+ * {@code
+ * FralaxWatchRegistry registry = new FralaxWatchRegistry(4, 100, TimeUnit.MILLISECONDS);
+ * ManagedXmlContext tenant = registry.register(tenantFile, VtdXmlParser.class);
+ * //...
+ * tenant.close(); //unregisters the file again
+ * registry.close(); //stops watching all files
+ * }
+ * </pre>
+ * Each directory containing a registered file is registered once with a {@link WatchService}. All events that are
+ * available at once are coalesced, so each changed file is reported once per batch, and the managed contexts debounce
+ * further changes before they reload. A file that is replaced by deleting and creating it again is reloaded once it exists
+ * again. Files whose directory can not be watched are polled (size and modification time)
+ * by the same thread every {@link #POLL_INTERVAL_MILLIS} ms. The cost of watching therefore only grows with the number of
+ * changes, not with the number of files or queries.
+ * <p />
+ * {@link Fralax#watch(String, Class)} registers its files with the registry returned by {@link #getDefault()}.
+ */
+@SuppressWarnings("WeakerAccess")
+public class FralaxWatchRegistry implements AutoCloseable {
+
+    /** Interval in which files are checked for changes if their directory can not be watched. */
+    public static final long POLL_INTERVAL_MILLIS = 1000;
+
+    private static final Logger LOGGER = Logger.getLogger(FralaxWatchRegistry.class.getName());
+    private static final AtomicInteger REGISTRY_COUNT = new AtomicInteger();
+
+    private static volatile FralaxWatchRegistry defaultRegistry;
+
+    private final long debounceMillis;
+    private final ScheduledExecutorService reloadExecutor;
+    private final WatchService watchService;
+    private final Thread watcherThread;
+
+    private final Map<Path, Set<ManagedXmlContext>> contexts = new HashMap<>();
+    private final Map<Path, WatchKey> watchedDirectories = new HashMap<>();
+    private final Map<Path, Object> polledFiles = new HashMap<>();
+    private volatile boolean closed;
+
+    /**
+     * Creates a registry reloading with as many threads as there are processors and the default debounce delay.
+     */
+    public FralaxWatchRegistry() {
+        this(Runtime.getRuntime().availableProcessors(), ManagedXmlContext.DEFAULT_DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a registry and starts its watcher thread.
+     *
+     * @param reloadParallelism the maximum number of files that are reloaded at the same time.
+     * @param debounce          the default delay after the last change of a file before it is reloaded.
+     * @param unit              the unit of the delay.
+     */
+    public FralaxWatchRegistry(final int reloadParallelism, final long debounce, final TimeUnit unit) {
+        if (reloadParallelism < 1) {
+            throw new IllegalArgumentException("the reload parallelism must be at least 1, but was " + reloadParallelism);
+        }
+        final int registryNumber = REGISTRY_COUNT.incrementAndGet();
+        final AtomicInteger reloadThreadCount = new AtomicInteger();
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(reloadParallelism, runnable -> {
+            final Thread thread = new Thread(runnable, "fralax-reload-" + registryNumber + "-" + reloadThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        this.reloadExecutor = executor;
+        this.debounceMillis = unit.toMillis(debounce);
+        this.watchService = newWatchService();
+        this.watcherThread = new Thread(this::run, "fralax-watcher-" + registryNumber);
+        this.watcherThread.setDaemon(true);
+        this.watcherThread.start();
+    }
+
+    private static WatchService newWatchService() {
+        try {
+            return FileSystems.getDefault().newWatchService();
+        } catch (final IOException | UnsupportedOperationException e) {
+            LOGGER.log(Level.FINE, "can not watch files, polling them instead", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the registry used by {@link Fralax#watch(String, Class)}. It is created on first use and runs for the
+     * lifetime of the JVM.
+     *
+     * @return the default registry.
+     */
+    public static FralaxWatchRegistry getDefault() {
+        if (defaultRegistry == null) {
+            synchronized (FralaxWatchRegistry.class) {
+                if (defaultRegistry == null) {
+                    defaultRegistry = new FralaxWatchRegistry();
+                }
+            }
+        }
+        return defaultRegistry;
+    }
+
+    /**
+     * Parses the file with the default parser and watches it with the default debounce delay of this registry.
+     *
+     * @param file file to parse.
+     * @return a managed context, closing it unregisters the file.
+     * @see #register(String, Class, long, TimeUnit)
+     */
+    public ManagedXmlContext register(final String file) {
+        return register(file, VtdXmlParser.class);
+    }
+
+    /**
+     * Parses the file and watches it with the default debounce delay of this registry.
+     *
+     * @param file           file to parse.
+     * @param xmlParserClass the class of the specific parser to create.
+     * @return a managed context, closing it unregisters the file.
+     * @see #register(String, Class, long, TimeUnit)
+     */
+    public ManagedXmlContext register(final String file, final Class<? extends XmlParser> xmlParserClass) {
+        return register(file, xmlParserClass, debounceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Parses the file and watches it until the returned context is closed. A file can be registered more than once, e.g.
+     * with different parsers, each registration is reloaded independently.
+     *
+     * @param file           file to parse.
+     * @param xmlParserClass the class of the specific parser to create.
+     * @param debounce       the delay after the last change before the file is reloaded, {@code 0} to reload right away.
+     * @param unit           the unit of the delay.
+     * @return a managed context, closing it unregisters the file.
+     * @throws FralaxException thrown when the file can not be parsed.
+     */
+    public ManagedXmlContext register(final String file, final Class<? extends XmlParser> xmlParserClass, final long debounce, final TimeUnit unit) {
+        Objects.requireNonNull(file, "the xml file may not be null");
+        if (closed) {
+            throw new IllegalStateException("the watch registry has been closed");
+        }
+        final Path path = new File(file).getAbsoluteFile().toPath().normalize();
+        final Object stamp = stamp(path);
+        final ManagedXmlContext context = new ManagedXmlContext(path.toString(), xmlParserClass, unit.toMillis(debounce), this);
+        synchronized (contexts) {
+            final Set<ManagedXmlContext> registered = contexts.get(path);
+            if (registered != null) {
+                registered.add(context);
+            } else {
+                contexts.put(path, new LinkedHashSet<>(Collections.singleton(context)));
+                watch(path);
+            }
+        }
+        // the file is only watched once it has been parsed, changes in between are detected by its stamp
+        if (!Objects.equals(stamp, stamp(path))) {
+            context.scheduleReload();
+        }
+        return context;
+    }
+
+    /** Watches the directory of a newly registered file or, if it can not be watched, polls the file. Guarded by {@link #contexts}. */
+    private void watch(final Path file) {
+        final Path directory = file.getParent();
+        if (watchedDirectories.containsKey(directory)) {
+            return;
+        }
+        if (watchService != null) {
+            try {
+                watchedDirectories.put(directory, directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE));
+                return;
+            } catch (final IOException | UnsupportedOperationException e) {
+                LOGGER.log(Level.FINE, "can not watch " + directory + ", polling " + file + " instead", e);
+            }
+        }
+        polledFiles.put(file, stamp(file));
+    }
+
+    /**
+     * Stops watching the file of the context, called when the context is closed.
+     *
+     * @param context the context to unregister.
+     */
+    void unregister(final ManagedXmlContext context) {
+        final Path path = context.getFile().toPath();
+        synchronized (contexts) {
+            final Set<ManagedXmlContext> registered = contexts.get(path);
+            if (registered == null || !registered.remove(context) || !registered.isEmpty()) {
+                return;
+            }
+            contexts.remove(path);
+            polledFiles.remove(path);
+            final Path directory = path.getParent();
+            for (final Path file : contexts.keySet()) {
+                if (file.getParent().equals(directory)) {
+                    return;
+                }
+            }
+            final WatchKey key = watchedDirectories.remove(directory);
+            if (key != null) {
+                key.cancel();
+            }
+        }
+    }
+
+    /**
+     * @return the files currently watched by this registry.
+     */
+    public Set<Path> getWatchedFiles() {
+        synchronized (contexts) {
+            return new HashSet<>(contexts.keySet());
+        }
+    }
+
+    /** @return the executor the registered contexts reload on. */
+    ScheduledExecutorService getReloadExecutor() {
+        return reloadExecutor;
+    }
+
+    private void run() {
+        long nextPoll = System.currentTimeMillis() + POLL_INTERVAL_MILLIS;
+        try {
+            while (!closed) {
+                final Set<Path> changedFiles = new HashSet<>();
+                if (watchService != null) {
+                    WatchKey key = watchService.poll(Math.max(nextPoll - System.currentTimeMillis(), 1), TimeUnit.MILLISECONDS);
+                    // coalesce all events that are available at once
+                    while (key != null) {
+                        collectChanges(key, changedFiles);
+                        key = watchService.poll();
+                    }
+                } else {
+                    Thread.sleep(Math.max(nextPoll - System.currentTimeMillis(), 1));
+                }
+                if (System.currentTimeMillis() >= nextPoll) {
+                    pollChanges(changedFiles);
+                    nextPoll = System.currentTimeMillis() + POLL_INTERVAL_MILLIS;
+                }
+                notifyChanges(changedFiles);
+            }
+        } catch (final InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    private void collectChanges(final WatchKey key, final Set<Path> changedFiles) {
+        final Path directory = (Path) key.watchable();
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // events got lost, all files of the directory might have changed
+                synchronized (contexts) {
+                    for (final Path file : contexts.keySet()) {
+                        if (file.getParent().equals(directory)) {
+                            changedFiles.add(file);
+                        }
+                    }
+                }
+            } else {
+                // deleted files are reported as well, they are reloaded once they are created again
+                changedFiles.add(directory.resolve((Path) event.context()));
+            }
+        }
+        key.reset();
+    }
+
+    private void pollChanges(final Set<Path> changedFiles) {
+        synchronized (contexts) {
+            for (final Map.Entry<Path, Object> polledFile : polledFiles.entrySet()) {
+                final Object stamp = stamp(polledFile.getKey());
+                if (stamp != null && !stamp.equals(polledFile.getValue())) {
+                    polledFile.setValue(stamp);
+                    changedFiles.add(polledFile.getKey());
+                }
+            }
+        }
+    }
+
+    /** @return size and modification time (in the precision of the file system) of the file or {@code null} if the file can not be read. */
+    private static Object stamp(final Path file) {
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return attributes.size() + "@" + attributes.lastModifiedTime();
+        } catch (final IOException e) {
+            return null;
+        }
+    }
+
+    private void notifyChanges(final Set<Path> changedFiles) {
+        if (changedFiles.isEmpty()) {
+            return;
+        }
+        final List<ManagedXmlContext> changedContexts = new ArrayList<>();
+        synchronized (contexts) {
+            for (final Path file : changedFiles) {
+                final Set<ManagedXmlContext> registered = contexts.get(file);
+                if (registered != null) {
+                    changedContexts.addAll(registered);
+                }
+            }
+        }
+        for (final ManagedXmlContext context : changedContexts) {
+            try {
+                context.scheduleReload();
+            } catch (final RuntimeException e) {
+                LOGGER.log(Level.WARNING, "failed to schedule reload of " + context.getFile(), e);
+            }
+        }
+    }
+
+    /**
+     * Stops watching all registered files and shuts down the reload threads. The contexts keep answering queries with the
+     * snapshot that is current at this point. The default registry can not be closed.
+     */
+    @Override
+    public void close() {
+        if (this == defaultRegistry) {
+            throw new UnsupportedOperationException("the default watch registry can not be closed");
+        }
+        closed = true;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (final IOException e) {
+                // nothing left to release
+            }
+        }
+        watcherThread.interrupt();
+        reloadExecutor.shutdownNow();
+        synchronized (contexts) {
+            contexts.clear();
+            watchedDirectories.clear();
+            polledFiles.clear();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package net.onenandone.fralax;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative values with power of two buckets: bucket {@code 0} counts the value {@code 0}, bucket
+ * {@code i} the values from {@code 2^(i-1)} to {@code 2^i - 1}. Recording a value neither allocates nor locks, so it can
+ * be used on hot paths by many threads. Percentiles are therefore only accurate up to a factor of two.
+ */
+public final class Histogram {
+
+    private static final int BUCKETS = 65;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value, negative values are recorded as {@code 0}.
+     *
+     * @param value the value to record.
+     */
+    public void record(final long value) {
+        final long recorded = Math.max(value, 0);
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(recorded));
+        count.incrementAndGet();
+        sum.addAndGet(recorded);
+        long currentMax = max.get();
+        while (recorded > currentMax && !max.compareAndSet(currentMax, recorded)) {
+            currentMax = max.get();
+        }
+    }
+
+    /** @return the number of recorded values. */
+    public long getCount() {
+        return count.get();
+    }
+
+    /** @return the sum of all recorded values. */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /** @return the largest recorded value, {@code 0} if nothing has been recorded. */
+    public long getMax() {
+        return max.get();
+    }
+
+    /** @return the mean of the recorded values, {@code 0} if nothing has been recorded. */
+    public double getMean() {
+        final long currentCount = count.get();
+        return currentCount == 0 ? 0 : (double) sum.get() / currentCount;
+    }
+
+    /**
+     * Returns an upper bound of the percentile, the largest value of the bucket containing it.
+     *
+     * @param percentile the percentile, e.g. {@code 99.9}.
+     * @return an upper bound of the percentile, at most {@link #getMax()}, {@code 0} if nothing has been recorded.
+     */
+    public long getPercentile(final double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("the percentile must be between 0 and 100, but was " + percentile);
+        }
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += buckets.get(i);
+        }
+        final long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank && seen > 0) {
+                final long upperBound = i == 0 ? 0 : i == 64 ? Long.MAX_VALUE : (1L << i) - 1;
+                return Math.min(upperBound, max.get());
+            }
+        }
+        return 0;
+    }
+
+    /** Discards all recorded values. */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ", mean=" + getMean() + ", p50<=" + getPercentile(50) + ", p99<=" + getPercentile(99) + ", max=" + getMax();
+    }
+}
@@ -0,0 +1,113 @@
+package net.onenandone.fralax;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link FralaxMetrics} that aggregate all events of the process in {@link Histogram}s, e.g.
+ * <pre>
+ * {@code
+ * HistogramMetrics metrics = new HistogramMetrics();
+ * Fralax.setMetrics(metrics);
+ * //...
+ * long p99 = metrics.getQueryNanos().getPercentile(99);
+ * }
+ * </pre>
+ * Recording neither allocates nor locks.
+ */
+public class HistogramMetrics implements FralaxMetrics {
+
+    private final Histogram parseNanos = new Histogram();
+    private final Histogram parseBytes = new Histogram();
+    private final Histogram parseTokens = new Histogram();
+    private final Histogram queryNanos = new Histogram();
+    private final Histogram queryResults = new Histogram();
+    private final Histogram serializationNanos = new Histogram();
+    private final Histogram serializationCharacters = new Histogram();
+    private final Histogram reloadNanos = new Histogram();
+    private final AtomicLong reloadFailures = new AtomicLong();
+
+    @Override
+    public void parsed(final Class<? extends XmlParser> xmlParserClass, final long nanos, final long bytes, final long tokens) {
+        parseNanos.record(nanos);
+        parseBytes.record(bytes);
+        parseTokens.record(tokens);
+    }
+
+    @Override
+    public void queried(final String xpath, final long nanos, final int results) {
+        queryNanos.record(nanos);
+        queryResults.record(results);
+    }
+
+    @Override
+    public void serialized(final long nanos, final int characters) {
+        serializationNanos.record(nanos);
+        serializationCharacters.record(characters);
+    }
+
+    @Override
+    public void reloaded(final String file, final long nanos, final boolean success) {
+        reloadNanos.record(nanos);
+        if (!success) {
+            reloadFailures.incrementAndGet();
+        }
+    }
+
+    /** @return the durations of parses in nanoseconds. */
+    public Histogram getParseNanos() {
+        return parseNanos;
+    }
+
+    /** @return the sizes of parsed documents in bytes. */
+    public Histogram getParseBytes() {
+        return parseBytes;
+    }
+
+    /** @return the numbers of tokens of parsed documents. */
+    public Histogram getParseTokens() {
+        return parseTokens;
+    }
+
+    /** @return the durations of queries in nanoseconds. */
+    public Histogram getQueryNanos() {
+        return queryNanos;
+    }
+
+    /** @return the numbers of results of queries. */
+    public Histogram getQueryResults() {
+        return queryResults;
+    }
+
+    /** @return the durations of transformations to string in nanoseconds. */
+    public Histogram getSerializationNanos() {
+        return serializationNanos;
+    }
+
+    /** @return the lengths of the strings contexts have been transformed to. */
+    public Histogram getSerializationCharacters() {
+        return serializationCharacters;
+    }
+
+    /** @return the durations of reloads in nanoseconds, the count is the number of reloads including failed ones. */
+    public Histogram getReloadNanos() {
+        return reloadNanos;
+    }
+
+    /** @return the number of reloads that failed to parse the file. */
+    public long getReloadFailures() {
+        return reloadFailures.get();
+    }
+
+    /** Discards all recorded values. */
+    public void reset() {
+        parseNanos.reset();
+        parseBytes.reset();
+        parseTokens.reset();
+        queryNanos.reset();
+        queryResults.reset();
+        serializationNanos.reset();
+        serializationCharacters.reset();
+        reloadNanos.reset();
+        reloadFailures.set(0);
+    }
+}
@@ -1,76 +1,384 @@
 package net.onenandone.fralax;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 @SuppressWarnings("WeakerAccess")
 /**
  * A Managed XMLContext that ensures if the underlying xml file is changed externally, the internal representation is updated correctly.
+ * <p />
+ * The file is watched in the background by the {@link FralaxWatchRegistry} it has been registered with. After a change
+ * the file is reparsed on a reload thread of the registry, once no further change arrived within the debounce delay,
+ * so a burst of writes results in a single reload. The parsed document
+ * is then swapped in atomically as the next snapshot ({@link #getVersion()}). Queries neither check the file nor take a
+ * lock, they are answered by the snapshot that is current when the query starts. A file that fails to parse, e.g. because
+ * it is only half written, leaves the last good snapshot in place. The watching stops on {@link #close()}.
  */
-public class ManagedXmlContext implements  XmlContext {
+public class ManagedXmlContext implements XmlContext, AutoCloseable {
 
-    private static final Object MUTEX = new Object();
+    /** Delay after the last change of the file before it is reloaded, unless another delay is passed to {@link Fralax#watch(String, Class, long, TimeUnit)}. */
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 100;
+
+    private static final Logger LOGGER = Logger.getLogger(ManagedXmlContext.class.getName());
 
     private final File file;
     private final Class<? extends XmlParser> xmlParserClass;
+    private final long debounceMillis;
+    private final FralaxWatchRegistry registry;
+    private final Object reloadLock = new Object();
+    /** Guards {@link #pendingReload} and {@link #closed}. */
+    private final Object scheduleLock = new Object();
+    private final List<XPathSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    /** The element and attribute names indexed in every snapshot, guarded by {@link #reloadLock}. */
+    private final List<String[]> indexedAttributes = new ArrayList<>();
 
-    private XmlContext rootContext;
-    private long lastModification;
+    private volatile Snapshot snapshot;
+    private volatile FralaxException reloadFailure;
+    private volatile int resultCacheSize;
+    private ScheduledFuture<?> pendingReload;
+    private boolean closed;
 
-    ManagedXmlContext(final String file, final Class<? extends XmlParser> xmlParserClass) {
+    ManagedXmlContext(final String file, final Class<? extends XmlParser> xmlParserClass, final long debounceMillis, final FralaxWatchRegistry registry) {
         Objects.requireNonNull(file, "the xml file may not be null");
         Objects.requireNonNull(xmlParserClass, "the xml parser class may not be null");
 
         this.file = new File(file);
         this.xmlParserClass = xmlParserClass;
+        this.debounceMillis = debounceMillis;
+        this.registry = registry;
+        this.snapshot = new Snapshot(parse(), 1);
+    }
+
+    private XmlContext parse() {
+        return Fralax.newParser(xmlParserClass).parse(file.getAbsolutePath());
+    }
+
+    /**
+     * Reparses the file on the calling thread and swaps in the new snapshot right away, without waiting for the watcher
+     * to notice a change.
+     *
+     * @throws FralaxException thrown when the file can not be parsed, the previous snapshot stays in place.
+     */
+    public void reload() throws FralaxException {
+        synchronized (reloadLock) {
+            final XmlContext rootContext;
+            final long start = System.nanoTime();
+            try {
+                rootContext = parse();
+                if (resultCacheSize > 0) {
+                    rootContext.enableResultCache(resultCacheSize);
+                }
+                for (final String[] indexedAttribute : indexedAttributes) {
+                    rootContext.indexAttribute(indexedAttribute[0], indexedAttribute[1]);
+                }
+            } catch (final FralaxException e) {
+                reloadFailure = e;
+                Fralax.getMetrics().reloaded(file.getPath(), System.nanoTime() - start, false);
+                throw e;
+            }
+            snapshot = new Snapshot(rootContext, snapshot.version + 1);
+            reloadFailure = null;
+            Fralax.getMetrics().reloaded(file.getPath(), System.nanoTime() - start, true);
+            for (final XPathSubscription subscription : subscriptions) {
+                try {
+                    subscription.update(rootContext);
+                } catch (final RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "failed to notify subscription to " + subscription.getXPath() + " of " + file, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Subscribes to the result of an xpath query, e.g. to recompute data derived from a part of the file only when that
+     * part changed. The listener is called on the reload thread after a reload whose snapshot yields a different result
+     * than the previous one, it is not called for the current snapshot.
+     * <pre>
+     * {@code
+     * ManagedXmlContext xml = Fralax.watch(fileToParse, VtdXmlParser.class);
+     * XPathSubscription subscription = xml.subscribe("//route", routes -> routingTable.rebuild(routes));
+     * //...
+     * subscription.close();
+     * }
+     * </pre>
+     *
+     * @param xpath    the xpath query to subscribe to.
+     * @param listener called with the new result.
+     * @return the subscription, closing it cancels the subscription.
+     * @throws FralaxException thrown when the xpath can not be evaluated on the current snapshot.
+     */
+    public XPathSubscription subscribe(final String xpath, final Consumer<List<XmlContext>> listener) throws FralaxException {
+        Objects.requireNonNull(xpath, "the xpath may not be null");
+        Objects.requireNonNull(listener, "the listener may not be null");
+        synchronized (reloadLock) {
+            final XPathSubscription subscription = new XPathSubscription(this, xpath, listener, snapshot.rootContext);
+            subscriptions.add(subscription);
+            return subscription;
+        }
+    }
+
+    /**
+     * Cancels a subscription, called by {@link XPathSubscription#close()}.
+     *
+     * @param subscription the subscription to cancel.
+     */
+    void unsubscribe(final XPathSubscription subscription) {
+        subscriptions.remove(subscription);
+    }
+
+    /**
+     * Called by the {@link FralaxWatchRegistry} when the file changed. (Re)starts the debounce delay, the file is reloaded
+     * on the reload threads of the registry once no further change arrives within the delay.
+     */
+    void scheduleReload() {
+        synchronized (scheduleLock) {
+            if (closed) {
+                return;
+            }
+            if (pendingReload != null) {
+                pendingReload.cancel(false);
+            }
+            pendingReload = registry.getReloadExecutor().schedule(this::reloadAfterChange, debounceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** @return the watched file. */
+    File getFile() {
+        return file;
+    }
 
+    private void reloadAfterChange() {
+        if (!file.exists()) {
+            // deleted, e.g. to be replaced by a new file, which is reported as another change
+            LOGGER.log(Level.FINE, "{0} has been deleted, keeping version {1}", new Object[]{file, snapshot.version});
+            return;
+        }
         try {
-            this.rootContext = xmlParserClass.newInstance().parse(this.file.getAbsolutePath());
-            this.lastModification = this.file.lastModified();
-        } catch (final InstantiationException | IllegalAccessException e) {
-            throw new FralaxException("could not instantiate xml parser class '" + xmlParserClass.getCanonicalName() + "'", e);
+            reload();
+        } catch (final FralaxException e) {
+            LOGGER.log(Level.WARNING, "failed to reload " + file + ", keeping version " + snapshot.version, e);
         }
     }
 
-    private synchronized void checkLastModification() {
-        if (file.lastModified() > lastModification) {
-            synchronized (MUTEX) {
-                if (file.lastModified() > lastModification) {
-                    try {
-                        this.rootContext = xmlParserClass.newInstance().parse(file.getAbsolutePath());
-                        this.lastModification = this.file.lastModified();
-                    } catch (final InstantiationException | IllegalAccessException e) {
-                        throw new FralaxException("could not instantiate xml parser class '" + xmlParserClass.getCanonicalName() + "'", e);
-                    }
-                }
+    /**
+     * Returns the version of the current snapshot. The first parse of the file is version 1, every successful reload
+     * increments the version by one.
+     *
+     * @return the version of the snapshot queries are currently answered by.
+     */
+    public long getVersion() {
+        return snapshot.version;
+    }
+
+    /**
+     * @return the error of the last reload if it failed, so queries are still answered by an older snapshot, otherwise {@link Optional#empty()}.
+     */
+    public Optional<FralaxException> getReloadFailure() {
+        return Optional.ofNullable(reloadFailure);
+    }
+
+    /**
+     * Stops watching the file and unregisters it from its {@link FralaxWatchRegistry}, the context keeps answering queries
+     * with the snapshot that is current at this point.
+     */
+    @Override
+    public void close() {
+        synchronized (scheduleLock) {
+            closed = true;
+            if (pendingReload != null) {
+                pendingReload.cancel(false);
             }
         }
+        registry.unregister(this);
+    }
+
+    /**
+     * A parsed version of the file.
+     */
+    private static final class Snapshot {
+        private final XmlContext rootContext;
+        private final long version;
+
+        private Snapshot(final XmlContext rootContext, final long version) {
+            this.rootContext = rootContext;
+            this.version = version;
+        }
     }
 
     @Override
     public Optional<XmlContext> select(final String xpath) throws FralaxException {
-        checkLastModification();
-        return this.rootContext.select(xpath);
+        return this.snapshot.rootContext.select(xpath);
     }
 
     @Override
     public List<XmlContext> selectAll(final String xpath) throws FralaxException {
-        checkLastModification();
-        return this.rootContext.selectAll(xpath);
+        return this.snapshot.rootContext.selectAll(xpath);
+    }
+
+    @Override
+    public boolean exists(final String xpath) throws FralaxException {
+        return this.snapshot.rootContext.exists(xpath);
+    }
+
+    @Override
+    public int count(final String xpath) throws FralaxException {
+        return this.snapshot.rootContext.count(xpath);
+    }
+
+    @Override
+    public OptionalInt selectInt(final String xpath) throws FralaxException {
+        return this.snapshot.rootContext.selectInt(xpath);
+    }
+
+    @Override
+    public OptionalLong selectLong(final String xpath) throws FralaxException {
+        return this.snapshot.rootContext.selectLong(xpath);
+    }
+
+    @Override
+    public OptionalDouble selectDouble(final String xpath) throws FralaxException {
+        return this.snapshot.rootContext.selectDouble(xpath);
+    }
+
+    @Override
+    public Optional<Boolean> selectBoolean(final String xpath) throws FralaxException {
+        return this.snapshot.rootContext.selectBoolean(xpath);
+    }
+
+    @Override
+    public String[] selectStrings(final String xpath) throws FralaxException {
+        return this.snapshot.rootContext.selectStrings(xpath);
+    }
+
+    @Override
+    public int[] selectInts(final String xpath) throws FralaxException {
+        return this.snapshot.rootContext.selectInts(xpath);
+    }
+
+    @Override
+    public int selectInts(final String xpath, final int[] buffer, final int offset) throws FralaxException {
+        return this.snapshot.rootContext.selectInts(xpath, buffer, offset);
+    }
+
+    @Override
+    public long[] selectLongs(final String xpath) throws FralaxException {
+        return this.snapshot.rootContext.selectLongs(xpath);
+    }
+
+    @Override
+    public int selectLongs(final String xpath, final long[] buffer, final int offset) throws FralaxException {
+        return this.snapshot.rootContext.selectLongs(xpath, buffer, offset);
+    }
+
+    @Override
+    public double[] selectDoubles(final String xpath) throws FralaxException {
+        return this.snapshot.rootContext.selectDoubles(xpath);
+    }
+
+    @Override
+    public int selectDoubles(final String xpath, final double[] buffer, final int offset) throws FralaxException {
+        return this.snapshot.rootContext.selectDoubles(xpath, buffer, offset);
+    }
+
+    @Override
+    public String[][] selectColumns(final String rowXpath, final String... fieldXpaths) throws FralaxException {
+        return this.snapshot.rootContext.selectColumns(rowXpath, fieldXpaths);
+    }
+
+    @Override
+    public Iterator<XmlContext> iterator(final String xpath) throws FralaxException {
+        return this.snapshot.rootContext.iterator(xpath);
+    }
+
+    /** Enables the cache for the current snapshot and all snapshots reloaded later on, each with a cache of its own. */
+    @Override
+    public XmlContext enableResultCache(final int maximumSize) {
+        synchronized (reloadLock) {
+            this.resultCacheSize = maximumSize;
+            this.snapshot.rootContext.enableResultCache(maximumSize);
+        }
+        return this;
+    }
+
+    /** Indexes the current snapshot, every later snapshot is indexed during its reload, before it is swapped in. */
+    @Override
+    public XmlContext indexAttribute(final String element, final String attribute) throws FralaxException {
+        synchronized (reloadLock) {
+            this.snapshot.rootContext.indexAttribute(element, attribute);
+            this.indexedAttributes.add(new String[]{element, attribute});
+        }
+        return this;
+    }
+
+    @Override
+    public List<XmlContext> lookup(final String element, final String attribute, final String value) throws FralaxException {
+        return this.snapshot.rootContext.lookup(element, attribute, value);
+    }
+
+    @Override
+    public CompiledXPath compile(final String xpath) throws FralaxException {
+        return this.snapshot.rootContext.compile(xpath);
+    }
+
+    @Override
+    public Optional<XmlContext> select(final CompiledXPath xpath) throws FralaxException {
+        return this.snapshot.rootContext.select(xpath);
+    }
+
+    @Override
+    public List<XmlContext> selectAll(final CompiledXPath xpath) throws FralaxException {
+        return this.snapshot.rootContext.selectAll(xpath);
     }
 
     @Override
     public String asString() {
-        checkLastModification();
-        return this.rootContext.asString();
+        return this.snapshot.rootContext.asString();
     }
 
     @Override
     public String asString(final boolean formatted) {
-        checkLastModification();
-        return this.rootContext.asString(formatted);
+        return this.snapshot.rootContext.asString(formatted);
+    }
+
+    @Override
+    public long getRetainedBytes() {
+        return this.snapshot.rootContext.getRetainedBytes();
+    }
+
+    @Override
+    public String asFragment() {
+        return this.snapshot.rootContext.asFragment();
+    }
+
+    @Override
+    public void writeTo(final OutputStream outputStream) throws IOException {
+        this.snapshot.rootContext.writeTo(outputStream);
+    }
+
+    @Override
+    public void writeTo(final WritableByteChannel channel) throws IOException {
+        this.snapshot.rootContext.writeTo(channel);
+    }
+
+    @Override
+    public void writeTo(final Appendable appendable) throws IOException {
+        this.snapshot.rootContext.writeTo(appendable);
     }
 
     /**
@@ -103,6 +411,6 @@ public class ManagedXmlContext implements  XmlContext {
      * @return an unmanaged version of this context.
      */
     public XmlContext unmanaged() {
-        return rootContext;
+        return snapshot.rootContext;
     }
 }
@@ -0,0 +1,260 @@
+package net.onenandone.fralax;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link FralaxMetrics} that profile xpath queries: time, invocations and results are aggregated per normalized
+ * expression, in which literals are replaced by {@code ?} so that e.g. {@code //vehicle[@id='RR1']} and
+ * {@code //vehicle[@id='AM1']} count as one expression. Queries slower than a threshold are logged with their original
+ * xpath at level {@code WARNING}. The profiler is opt-in, e.g.
+ * <pre>
+ * {@code
+ * QueryProfiler profiler = new QueryProfiler(10, TimeUnit.MILLISECONDS);
+ * Fralax.setMetrics(profiler);
+ * //...
+ * System.out.println(profiler.report());
+ * }
+ * </pre>
+ * All events, also those not concerning queries, are passed on to the metrics the profiler was created with. The number
+ * of nodes visited by a query is not available, as VTD-XML does not expose it.
+ */
+public class QueryProfiler implements FralaxMetrics {
+
+    /** The most expressions profiled separately, further ones are aggregated as {@link #OTHER_EXPRESSIONS}. */
+    public static final int MAX_EXPRESSIONS = 10_000;
+
+    /** The expression further expressions are aggregated under once {@link #MAX_EXPRESSIONS} are profiled. */
+    public static final String OTHER_EXPRESSIONS = "(other expressions)";
+
+    private static final Logger LOGGER = Logger.getLogger(QueryProfiler.class.getName());
+
+    private final ConcurrentMap<String, Statistics> expressions = new ConcurrentHashMap<>();
+    private final long slowQueryNanos;
+    private final FralaxMetrics next;
+
+    /**
+     * @param slowQueryThreshold the duration from which on queries are logged, {@code 0} to log all queries and
+     *                           {@link Long#MAX_VALUE} to log none.
+     * @param unit               the unit of the threshold.
+     */
+    public QueryProfiler(final long slowQueryThreshold, final TimeUnit unit) {
+        this(slowQueryThreshold, unit, FralaxMetrics.NOOP);
+    }
+
+    /**
+     * @param slowQueryThreshold the duration from which on queries are logged, {@code 0} to log all queries and
+     *                           {@link Long#MAX_VALUE} to log none.
+     * @param unit               the unit of the threshold.
+     * @param next               the metrics all events are passed on to, e.g. {@link HistogramMetrics}.
+     */
+    public QueryProfiler(final long slowQueryThreshold, final TimeUnit unit, final FralaxMetrics next) {
+        if (slowQueryThreshold < 0) {
+            throw new IllegalArgumentException("the slow query threshold may not be negative");
+        }
+        this.slowQueryNanos = unit.toNanos(slowQueryThreshold);
+        this.next = Objects.requireNonNull(next, "the next metrics may not be null");
+    }
+
+    @Override
+    public void parsed(final Class<? extends XmlParser> xmlParserClass, final long nanos, final long bytes, final long tokens) {
+        next.parsed(xmlParserClass, nanos, bytes, tokens);
+    }
+
+    @Override
+    public void queried(final String xpath, final long nanos, final int results) {
+        statisticsOf(normalize(xpath)).record(nanos, results);
+        if (nanos >= slowQueryNanos && LOGGER.isLoggable(Level.WARNING)) {
+            LOGGER.warning(String.format(Locale.ROOT, "slow xpath %s took %.3f ms and returned %d results", xpath, nanos / 1e6, results));
+        }
+        next.queried(xpath, nanos, results);
+    }
+
+    @Override
+    public void serialized(final long nanos, final int characters) {
+        next.serialized(nanos, characters);
+    }
+
+    @Override
+    public void reloaded(final String file, final long nanos, final boolean success) {
+        next.reloaded(file, nanos, success);
+    }
+
+    private Statistics statisticsOf(final String expression) {
+        final Statistics statistics = expressions.get(expression);
+        if (statistics != null) {
+            return statistics;
+        }
+        if (expressions.size() >= MAX_EXPRESSIONS) {
+            return expressions.computeIfAbsent(OTHER_EXPRESSIONS, key -> new Statistics());
+        }
+        return expressions.computeIfAbsent(expression, key -> new Statistics());
+    }
+
+    /**
+     * Normalizes an xpath for aggregation: whitespace is collapsed, string literals and numbers are replaced by {@code ?}.
+     *
+     * @param xpath the xpath to normalize.
+     * @return the normalized xpath, e.g. {@code //vehicle[@id=?][?]} for {@code //vehicle[ @id = "RR1" ][1]}.
+     */
+    public static String normalize(final String xpath) {
+        final StringBuilder normalized = new StringBuilder(xpath.length());
+        int i = 0;
+        while (i < xpath.length()) {
+            final char c = xpath.charAt(i);
+            if (c == '\'' || c == '"') {
+                final int end = xpath.indexOf(c, i + 1);
+                normalized.append('?');
+                i = end == -1 ? xpath.length() : end + 1;
+            } else if (Character.isWhitespace(c)) {
+                while (i < xpath.length() && Character.isWhitespace(xpath.charAt(i))) {
+                    i++;
+                }
+                // keep a single space only where it separates names, e.g. "a and @b"
+                if (normalized.length() > 0 && i < xpath.length() && isNameCharacter(normalized.charAt(normalized.length() - 1))
+                        && (isNameCharacter(xpath.charAt(i)) || xpath.charAt(i) == '@' || xpath.charAt(i) == '$')) {
+                    normalized.append(' ');
+                }
+            } else if (isDigit(c, xpath, i) && (normalized.length() == 0 || !isNameCharacter(normalized.charAt(normalized.length() - 1)))) {
+                while (i < xpath.length() && isDigit(xpath.charAt(i), xpath, i)) {
+                    i++;
+                }
+                normalized.append('?');
+            } else {
+                normalized.append(c);
+                i++;
+            }
+        }
+        return normalized.toString();
+    }
+
+    private static boolean isDigit(final char c, final String xpath, final int index) {
+        return c >= '0' && c <= '9' || c == '.' && index + 1 < xpath.length() && xpath.charAt(index + 1) >= '0' && xpath.charAt(index + 1) <= '9';
+    }
+
+    private static boolean isNameCharacter(final char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.' || c == '?';
+    }
+
+    /**
+     * Returns the statistics of all profiled expressions, the most expensive ones (by total time) first.
+     *
+     * @return a snapshot of the statistics.
+     */
+    public List<ExpressionStatistics> snapshot() {
+        final List<ExpressionStatistics> snapshot = new ArrayList<>(expressions.size());
+        expressions.forEach((expression, statistics) -> snapshot.add(statistics.snapshot(expression)));
+        snapshot.sort(Comparator.comparingLong(ExpressionStatistics::getTotalNanos).reversed());
+        return snapshot;
+    }
+
+    /**
+     * Formats the {@link #snapshot()} as a table, one line per expression.
+     *
+     * @return the report.
+     */
+    public String report() {
+        final StringBuilder report = new StringBuilder(String.format(Locale.ROOT, "%12s %10s %12s %12s %12s  %s%n",
+                "total ms", "count", "mean ms", "max ms", "results", "xpath"));
+        for (final ExpressionStatistics statistics : snapshot()) {
+            report.append(String.format(Locale.ROOT, "%12.3f %10d %12.3f %12.3f %12d  %s%n", statistics.getTotalNanos() / 1e6,
+                    statistics.getCount(), statistics.getMeanNanos() / 1e6, statistics.getMaxNanos() / 1e6,
+                    statistics.getResults(), statistics.getXPath()));
+        }
+        return report.toString();
+    }
+
+    /** Discards the statistics of all expressions. */
+    public void reset() {
+        expressions.clear();
+    }
+
+    /**
+     * The statistics of an expression, updated concurrently.
+     */
+    private static final class Statistics {
+
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLong results = new AtomicLong();
+
+        private void record(final long nanos, final int resultCount) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            results.addAndGet(resultCount);
+            long currentMax = maxNanos.get();
+            while (nanos > currentMax && !maxNanos.compareAndSet(currentMax, nanos)) {
+                currentMax = maxNanos.get();
+            }
+        }
+
+        private ExpressionStatistics snapshot(final String expression) {
+            return new ExpressionStatistics(expression, count.get(), totalNanos.get(), maxNanos.get(), results.get());
+        }
+    }
+
+    /**
+     * The statistics of a normalized expression at the time of a {@link #snapshot()}.
+     */
+    public static final class ExpressionStatistics {
+
+        private final String xpath;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long results;
+
+        private ExpressionStatistics(final String xpath, final long count, final long totalNanos, final long maxNanos, final long results) {
+            this.xpath = xpath;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.results = results;
+        }
+
+        /** @return the normalized xpath. */
+        public String getXPath() {
+            return xpath;
+        }
+
+        /** @return the number of queries. */
+        public long getCount() {
+            return count;
+        }
+
+        /** @return the total duration of the queries in nanoseconds. */
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /** @return the mean duration of the queries in nanoseconds. */
+        public double getMeanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+
+        /** @return the duration of the slowest query in nanoseconds. */
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /** @return the total number of results of the queries. */
+        public long getResults() {
+            return results;
+        }
+
+        @Override
+        public String toString() {
+            return xpath + ": count=" + count + ", totalNanos=" + totalNanos + ", maxNanos=" + maxNanos + ", results=" + results;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package net.onenandone.fralax;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A subscription to the result of an xpath query on a {@link ManagedXmlContext}, created by
+ * {@link ManagedXmlContext#subscribe(String, Consumer)}. After each reload of the file the query is evaluated on the new
+ * snapshot and the listener is called if the result differs from the one of the previous snapshot. Results are compared
+ * by a 64 bit hash of their {@link XmlContext#asFragment() fragments}, so neither the previous result nor its snapshot is
+ * retained.
+ */
+public final class XPathSubscription implements AutoCloseable {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final ManagedXmlContext context;
+    private final String xpath;
+    private final Consumer<List<XmlContext>> listener;
+    private long resultHash;
+
+    XPathSubscription(final ManagedXmlContext context, final String xpath, final Consumer<List<XmlContext>> listener, final XmlContext rootContext) {
+        this.context = context;
+        this.xpath = xpath;
+        this.listener = listener;
+        this.resultHash = hash(rootContext.selectAll(xpath));
+    }
+
+    /**
+     * Evaluates the query on a new snapshot and calls the listener if the result changed. Called by the managed context
+     * on its reload thread, one snapshot after another.
+     *
+     * @param rootContext the root context of the new snapshot.
+     */
+    void update(final XmlContext rootContext) {
+        final List<XmlContext> result = rootContext.selectAll(xpath);
+        final long hash = hash(result);
+        if (hash != resultHash) {
+            resultHash = hash;
+            listener.accept(result);
+        }
+    }
+
+    /**
+     * Hashes the fragments of a result with FNV-1a, the number of results and their boundaries are part of the hash.
+     */
+    private static long hash(final List<XmlContext> result) {
+        long hash = FNV_OFFSET_BASIS;
+        for (final XmlContext context : result) {
+            final String fragment = context.asFragment();
+            for (int i = 0; i < fragment.length(); i++) {
+                hash = (hash ^ fragment.charAt(i)) * FNV_PRIME;
+            }
+            hash = (hash ^ 0xffff) * FNV_PRIME; // not a valid character, separates the results
+        }
+        return hash;
+    }
+
+    /** @return the subscribed xpath. */
+    public String getXPath() {
+        return xpath;
+    }
+
+    /** Cancels the subscription, the listener is not called anymore unless it is already running. */
+    @Override
+    public void close() {
+        context.unsubscribe(this);
+    }
+}
@@ -3,11 +3,31 @@ package net.onenandone.fralax;
 import com.greenbird.xml.prettyprinter.PrettyPrinter;
 import com.greenbird.xml.prettyprinter.PrettyPrinterBuilder;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Represents a parsed XmlFile or result of an executed XPath-Query.
+ * <p />
+ * The documents parsed by the bundled parsers never change and their contexts are safe for concurrent use: one parsed
+ * document can be queried by any number of threads without external synchronization. The only settings, the
+ * {@link #enableResultCache(int) result cache} and {@link #indexAttribute(String, String) attribute indexes}, apply to the
+ * whole document, including all contexts sharing it, e.g. through the {@link Fralax#getDocumentCache() document cache},
+ * and may be changed concurrently to queries. Iterators and streams returned by
+ * {@link #iterator(String)} and {@link #stream(String)} are not thread-safe themselves and must be consumed by one thread.
  */
 public interface XmlContext {
 
@@ -21,6 +41,8 @@ public interface XmlContext {
      * objectRR1.select("/vehicle-id"); //returns the vehicle-id object only for the previously selected vehicle object
      * }
      * </pre>
+     * Queries of a selected context are evaluated within the subtree of its element: {@code /x} selects its children
+     * {@code x} like {@code x} does and {@code //x} its descendants {@code x} like {@code .//x} does.
      *
      * @param xpath the xpath query to search for.
      * @return a new XmlContext that can be parsed using xpath again.
@@ -45,6 +67,483 @@ public interface XmlContext {
      */
     List<XmlContext> selectAll(final String xpath) throws FralaxException;
 
+    /**
+     * Checks whether an XPathQuery has any result, e.g. as guard before working on an optional part of a document.
+     * Implementations may stop evaluating at the first result without creating a context for it.
+     *
+     * @param xpath the xpath query to search for.
+     * @return {@code true} if the query has at least one result, functions like {@code count(...)} always have one.
+     * @throws FralaxException thrown when an error occurs during parsing.
+     */
+    default boolean exists(final String xpath) throws FralaxException {
+        return iterator(xpath).hasNext();
+    }
+
+    /**
+     * Counts the results of an XPathQuery. Implementations may count the results without creating contexts for them.
+     *
+     * @param xpath the xpath query to search for.
+     * @return the number of results, functions like {@code count(...)} always have one.
+     * @throws FralaxException thrown when an error occurs during parsing.
+     */
+    default int count(final String xpath) throws FralaxException {
+        return selectAll(xpath).size();
+    }
+
+    /**
+     * Searches for an XPathQuery and returns the results one by one. Implementations may evaluate the query lazily, so a
+     * consumer that stops early does not pay for the remaining results.
+     *
+     * @param xpath the xpath query to search for.
+     * @return an iterator over the results as XmlContexts.
+     * @throws FralaxException thrown when an error occurs during parsing, possibly only while iterating.
+     * @see #selectAll(String)
+     */
+    default Iterator<XmlContext> iterator(final String xpath) throws FralaxException {
+        return selectAll(xpath).iterator();
+    }
+
+    /**
+     * Searches for an XPathQuery and returns the results as sequential stream, evaluated as lazily as {@link #iterator(String)}.
+     * E.g.
+     * <pre>
+     * {@code
+     * XmlContext xml = Fralax.parse(fileToParse);
+     * Optional<XmlContext> bus = xml.stream("//vehicle").filter(vehicle -> ...).findFirst(); //stops evaluating at the first match
+     * }
+     * </pre>
+     *
+     * @param xpath the xpath query to search for.
+     * @return a stream of the results as XmlContexts.
+     * @throws FralaxException thrown when an error occurs during parsing, possibly only while consuming the stream.
+     */
+    default Stream<XmlContext> stream(final String xpath) throws FralaxException {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(xpath), Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Compiles an xpath query once, so repeated selections with the returned handle skip parsing the query.
+     * E.g.
+     * <pre>
+     * {@code
+     * XmlContext xml = Fralax.parse(fileToParse);
+     * CompiledXPath vehicles = xml.compile("//vehicle");
+     * for (...) {
+     *     xml.selectAll(vehicles); //no xpath parsing involved
+     * }
+     * }
+     * </pre>
+     *
+     * @param xpath the xpath query to compile.
+     * @return a handle to select with.
+     * @throws FralaxException thrown when the xpath can not be compiled.
+     */
+    default CompiledXPath compile(final String xpath) throws FralaxException {
+        return new CompiledXPath(xpath);
+    }
+
+    /**
+     * Searches for a compiled XPathQuery, see {@link #select(String)}.
+     *
+     * @param xpath the compiled xpath query to search for.
+     * @return a new XmlContext that can be parsed using xpath again.
+     * @throws FralaxException thrown when an error occurs during parsing.
+     */
+    default Optional<XmlContext> select(final CompiledXPath xpath) throws FralaxException {
+        return select(xpath.getXPath());
+    }
+
+    /**
+     * Searches for a compiled XPathQuery, see {@link #selectAll(String)}.
+     *
+     * @param xpath the compiled xpath query to search for.
+     * @return a new XmlContext that can be parsed using xpath again.
+     * @throws FralaxException thrown when an error occurs during parsing.
+     */
+    default List<XmlContext> selectAll(final CompiledXPath xpath) throws FralaxException {
+        return selectAll(xpath.getXPath());
+    }
+
+    /**
+     * Selects a single value and parses it as int, e.g.
+     * <pre>
+     * {@code
+     * XmlContext xml = Fralax.parse(fileToParse);
+     * int seats = xml.selectInt("//vehicle[@id='RR1']/seats/text()", 0);
+     * OptionalInt vehicles = xml.selectInt("count(//vehicle)");
+     * }
+     * </pre>
+     * The xpath has to select at most one attribute or text node, or evaluate to a value like {@code count(...)}, an
+     * element is no value, e.g. {@code //vehicle/seats} has to be selected as {@code //vehicle/seats/text()}.
+     * Implementations may parse the value straight from the document, without creating contexts or strings.
+     *
+     * @param xpath the xpath query to search for.
+     * @return the value, {@link OptionalInt#empty()} if nothing has been selected.
+     * @throws FralaxException thrown when more than one result is selected, the value is not an int or an error occurs
+     *                         during parsing.
+     */
+    default OptionalInt selectInt(final String xpath) throws FralaxException {
+        final Optional<String> value = select(xpath).map(XmlContext::asString);
+        try {
+            return value.isPresent() ? OptionalInt.of(Integer.parseInt(value.get().trim())) : OptionalInt.empty();
+        } catch (final NumberFormatException e) {
+            throw new FralaxException("value of " + xpath + " is not an int", e);
+        }
+    }
+
+    /**
+     * Selects a single value and parses it as int, see {@link #selectInt(String)}.
+     *
+     * @param xpath        the xpath query to search for.
+     * @param defaultValue the value returned if nothing has been selected.
+     * @return the value, {@code defaultValue} if nothing has been selected.
+     * @throws FralaxException thrown when more than one result is selected, the value is not an int or an error occurs
+     *                         during parsing.
+     */
+    default int selectInt(final String xpath, final int defaultValue) throws FralaxException {
+        return selectInt(xpath).orElse(defaultValue);
+    }
+
+    /**
+     * Selects a single value and parses it as long, see {@link #selectInt(String)}.
+     *
+     * @param xpath the xpath query to search for.
+     * @return the value, {@link OptionalLong#empty()} if nothing has been selected.
+     * @throws FralaxException thrown when more than one result is selected, the value is not a long or an error occurs
+     *                         during parsing.
+     */
+    default OptionalLong selectLong(final String xpath) throws FralaxException {
+        final Optional<String> value = select(xpath).map(XmlContext::asString);
+        try {
+            return value.isPresent() ? OptionalLong.of(Long.parseLong(value.get().trim())) : OptionalLong.empty();
+        } catch (final NumberFormatException e) {
+            throw new FralaxException("value of " + xpath + " is not a long", e);
+        }
+    }
+
+    /**
+     * Selects a single value and parses it as long, see {@link #selectInt(String)}.
+     *
+     * @param xpath        the xpath query to search for.
+     * @param defaultValue the value returned if nothing has been selected.
+     * @return the value, {@code defaultValue} if nothing has been selected.
+     * @throws FralaxException thrown when more than one result is selected, the value is not a long or an error occurs
+     *                         during parsing.
+     */
+    default long selectLong(final String xpath, final long defaultValue) throws FralaxException {
+        return selectLong(xpath).orElse(defaultValue);
+    }
+
+    /**
+     * Selects a single value and parses it as double, see {@link #selectInt(String)}.
+     *
+     * @param xpath the xpath query to search for.
+     * @return the value, {@link OptionalDouble#empty()} if nothing has been selected.
+     * @throws FralaxException thrown when more than one result is selected, the value is not a double or an error occurs
+     *                         during parsing.
+     */
+    default OptionalDouble selectDouble(final String xpath) throws FralaxException {
+        final Optional<String> value = select(xpath).map(XmlContext::asString);
+        try {
+            return value.isPresent() ? OptionalDouble.of(Double.parseDouble(value.get().trim())) : OptionalDouble.empty();
+        } catch (final NumberFormatException e) {
+            throw new FralaxException("value of " + xpath + " is not a double", e);
+        }
+    }
+
+    /**
+     * Selects a single value and parses it as double, see {@link #selectInt(String)}.
+     *
+     * @param xpath        the xpath query to search for.
+     * @param defaultValue the value returned if nothing has been selected.
+     * @return the value, {@code defaultValue} if nothing has been selected.
+     * @throws FralaxException thrown when more than one result is selected, the value is not a double or an error occurs
+     *                         during parsing.
+     */
+    default double selectDouble(final String xpath, final double defaultValue) throws FralaxException {
+        return selectDouble(xpath).orElse(defaultValue);
+    }
+
+    /**
+     * Selects a single value and parses it as xml schema boolean ({@code true}, {@code false}, {@code 1} or {@code 0}),
+     * see {@link #selectInt(String)}. Boolean expressions like {@code count(//vehicle) > 2} evaluate to their value.
+     *
+     * @param xpath the xpath query to search for.
+     * @return the value, {@link Optional#empty()} if nothing has been selected.
+     * @throws FralaxException thrown when more than one result is selected, the value is not a boolean or an error
+     *                         occurs during parsing.
+     */
+    default Optional<Boolean> selectBoolean(final String xpath) throws FralaxException {
+        final Optional<String> value = select(xpath).map(XmlContext::asString).map(String::trim);
+        if (!value.isPresent()) {
+            return Optional.empty();
+        }
+        switch (value.get()) {
+            case "true":
+            case "1":
+                return Optional.of(Boolean.TRUE);
+            case "false":
+            case "0":
+                return Optional.of(Boolean.FALSE);
+            default:
+                throw new FralaxException("value of " + xpath + " is not a boolean");
+        }
+    }
+
+    /**
+     * Selects a single value and parses it as boolean, see {@link #selectBoolean(String)}.
+     *
+     * @param xpath        the xpath query to search for.
+     * @param defaultValue the value returned if nothing has been selected.
+     * @return the value, {@code defaultValue} if nothing has been selected.
+     * @throws FralaxException thrown when more than one result is selected, the value is not a boolean or an error
+     *                         occurs during parsing.
+     */
+    default boolean selectBoolean(final String xpath, final boolean defaultValue) throws FralaxException {
+        return selectBoolean(xpath).orElse(defaultValue);
+    }
+
+    /**
+     * Selects a column of values, e.g. one field of every record of an export:
+     * <pre>
+     * {@code
+     * XmlContext xml = Fralax.parse(fileToParse);
+     * String[] names = xml.selectStrings("//vehicle/name/text()");
+     * int[] ids = xml.selectInts("//vehicle/vehicleId/text()");
+     * }
+     * </pre>
+     * Implementations may read the values in one pass straight from the document, without creating a context per value.
+     *
+     * @param xpath the xpath query to search for.
+     * @return the results as returned by {@link #asString()}, in document order.
+     * @throws FralaxException thrown when an error occurs during parsing.
+     */
+    default String[] selectStrings(final String xpath) throws FralaxException {
+        return selectAll(xpath).stream().map(XmlContext::asString).toArray(String[]::new);
+    }
+
+    /**
+     * Selects a column of values and parses them as int, see {@link #selectStrings(String)}. The xpath has to select
+     * attributes or text nodes.
+     *
+     * @param xpath the xpath query to search for.
+     * @return the values in document order.
+     * @throws FralaxException thrown when a value is not an int or an error occurs during parsing.
+     */
+    default int[] selectInts(final String xpath) throws FralaxException {
+        final String[] values = selectStrings(xpath);
+        final int[] column = new int[values.length];
+        try {
+            for (int i = 0; i < values.length; i++) {
+                column[i] = Integer.parseInt(values[i].trim());
+            }
+        } catch (final NumberFormatException e) {
+            throw new FralaxException("value of " + xpath + " is not an int", e);
+        }
+        return column;
+    }
+
+    /**
+     * Selects a column of values, parses them as int and writes them to the buffer, see {@link #selectInts(String)}.
+     * Selecting more values than fit into the buffer fails and leaves the buffer unchanged. A value that can not be parsed
+     * fails as well, the values before it may have been written then.
+     *
+     * @param xpath  the xpath query to search for.
+     * @param buffer the buffer to write the values to.
+     * @param offset the index of the buffer to write the first value to.
+     * @return the number of values written.
+     * @throws FralaxException thrown when the values do not fit into the buffer, a value is not an int or an error
+     *                         occurs during parsing.
+     */
+    default int selectInts(final String xpath, final int[] buffer, final int offset) throws FralaxException {
+        final int[] column = selectInts(xpath);
+        if (column.length > buffer.length - offset) {
+            throw new FralaxException("buffer holds " + (buffer.length - offset) + " values, but " + xpath + " selects " + column.length);
+        }
+        System.arraycopy(column, 0, buffer, offset, column.length);
+        return column.length;
+    }
+
+    /**
+     * Selects a column of values and parses them as long, see {@link #selectInts(String)}.
+     *
+     * @param xpath the xpath query to search for.
+     * @return the values in document order.
+     * @throws FralaxException thrown when a value is not a long or an error occurs during parsing.
+     */
+    default long[] selectLongs(final String xpath) throws FralaxException {
+        final String[] values = selectStrings(xpath);
+        final long[] column = new long[values.length];
+        try {
+            for (int i = 0; i < values.length; i++) {
+                column[i] = Long.parseLong(values[i].trim());
+            }
+        } catch (final NumberFormatException e) {
+            throw new FralaxException("value of " + xpath + " is not a long", e);
+        }
+        return column;
+    }
+
+    /**
+     * Selects a column of values, parses them as long and writes them to the buffer, see {@link #selectInts(String, int[], int)}.
+     *
+     * @param xpath  the xpath query to search for.
+     * @param buffer the buffer to write the values to.
+     * @param offset the index of the buffer to write the first value to.
+     * @return the number of values written.
+     * @throws FralaxException thrown when the values do not fit into the buffer, a value is not a long or an error
+     *                         occurs during parsing.
+     */
+    default int selectLongs(final String xpath, final long[] buffer, final int offset) throws FralaxException {
+        final long[] column = selectLongs(xpath);
+        if (column.length > buffer.length - offset) {
+            throw new FralaxException("buffer holds " + (buffer.length - offset) + " values, but " + xpath + " selects " + column.length);
+        }
+        System.arraycopy(column, 0, buffer, offset, column.length);
+        return column.length;
+    }
+
+    /**
+     * Selects a column of values and parses them as double, see {@link #selectInts(String)}.
+     *
+     * @param xpath the xpath query to search for.
+     * @return the values in document order.
+     * @throws FralaxException thrown when a value is not a double or an error occurs during parsing.
+     */
+    default double[] selectDoubles(final String xpath) throws FralaxException {
+        final String[] values = selectStrings(xpath);
+        final double[] column = new double[values.length];
+        try {
+            for (int i = 0; i < values.length; i++) {
+                column[i] = Double.parseDouble(values[i].trim());
+            }
+        } catch (final NumberFormatException e) {
+            throw new FralaxException("value of " + xpath + " is not a double", e);
+        }
+        return column;
+    }
+
+    /**
+     * Selects a column of values, parses them as double and writes them to the buffer, see {@link #selectInts(String, int[], int)}.
+     *
+     * @param xpath  the xpath query to search for.
+     * @param buffer the buffer to write the values to.
+     * @param offset the index of the buffer to write the first value to.
+     * @return the number of values written.
+     * @throws FralaxException thrown when the values do not fit into the buffer, a value is not a double or an error
+     *                         occurs during parsing.
+     */
+    default int selectDoubles(final String xpath, final double[] buffer, final int offset) throws FralaxException {
+        final double[] column = selectDoubles(xpath);
+        if (column.length > buffer.length - offset) {
+            throw new FralaxException("buffer holds " + (buffer.length - offset) + " values, but " + xpath + " selects " + column.length);
+        }
+        System.arraycopy(column, 0, buffer, offset, column.length);
+        return column.length;
+    }
+
+    /**
+     * Selects records and extracts several fields of each record as columns, e.g.
+     * <pre>
+     * {@code
+     * XmlContext xml = Fralax.parse(fileToParse);
+     * String[][] columns = xml.selectColumns("//vehicle", "@id", "name/text()");
+     * String[] ids = columns[0];
+     * String[] names = columns[1];
+     * }
+     * </pre>
+     * Each field is selected on the record like {@link #select(String)} would, but only its first result is used.
+     *
+     * @param rowXpath    the xpath query selecting the records.
+     * @param fieldXpaths the xpath queries selecting the fields of a record.
+     * @return a column per field holding the fields as returned by {@link #asString()}, a row per record in document
+     * order, {@code null} where a record lacks a field.
+     * @throws FralaxException thrown when an error occurs during parsing.
+     */
+    default String[][] selectColumns(final String rowXpath, final String... fieldXpaths) throws FralaxException {
+        final List<XmlContext> rows = selectAll(rowXpath);
+        final String[][] columns = new String[fieldXpaths.length][rows.size()];
+        for (int row = 0; row < rows.size(); row++) {
+            for (int field = 0; field < fieldXpaths.length; field++) {
+                final Iterator<XmlContext> values = rows.get(row).iterator(fieldXpaths[field]);
+                columns[field][row] = values.hasNext() ? values.next().asString() : null;
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Enables a cache of query results for the document this context belongs to, so repeated selections of the same
+     * xpath on the same context are answered without evaluating the query again. The cache is shared by all contexts of
+     * the document and bounded by the number of results kept, least recently used results are evicted first. E.g.
+     * <pre>
+     * {@code
+     * XmlContext xml = Fralax.parse(fileToParse).enableResultCache(1024);
+     * xml.select("//vehicle[@id='RR1']"); //evaluated
+     * xml.select("//vehicle[@id='RR1']"); //answered from the cache
+     * }
+     * </pre>
+     * Calling it again resizes the cache without discarding the cached results, as other contexts of the document may
+     * rely on them. Contexts that do not support caching ignore the call.
+     *
+     * @param maximumSize the maximum number of query results kept, {@code 0} disables the cache again.
+     * @return this context.
+     */
+    default XmlContext enableResultCache(final int maximumSize) {
+        return this;
+    }
+
+    /**
+     * Indexes the elements of the document this context belongs to by the value of an attribute, so that lookups of
+     * elements by that value are answered without scanning the document, e.g. for id-style lookups:
+     * <pre>
+     * {@code
+     * XmlContext xml = Fralax.parse(fileToParse).indexAttribute("vehicle", "id");
+     * xml.lookup("vehicle", "id", "RR1"); //answered by the index
+     * xml.select("//vehicle[@id='RR1']"); //answered by the index as well
+     * }
+     * </pre>
+     * The index is built once, when this method is called. Queries of exactly the form {@code //element[@attribute='value']}
+     * are answered by the index, too. Like the {@link #enableResultCache(int) result cache}, the index belongs to the
+     * document and is used by all contexts sharing it. Contexts that do not support indexes ignore the call.
+     *
+     * @param element   the name of the elements to index, qualified with the prefix of its namespace if it has one.
+     * @param attribute the name of the attribute to index the elements by, qualified like the element.
+     * @return this context.
+     * @throws FralaxException thrown when the document can not be indexed.
+     */
+    default XmlContext indexAttribute(final String element, final String attribute) throws FralaxException {
+        return this;
+    }
+
+    /**
+     * Estimates the memory retained by the parsed document this context belongs to: the document itself and its index,
+     * e.g. the VTD records of its tokens. The {@link Fralax#getDocumentCache() document cache} weighs its documents by it.
+     *
+     * @return the estimate in bytes, {@code -1} if this context can not tell.
+     */
+    default long getRetainedBytes() {
+        return -1;
+    }
+
+    /**
+     * Selects the elements with a name whose attribute has a value, like {@code //element[@attribute='value']} would.
+     * Answered by the index if the elements have been {@link #indexAttribute(String, String) indexed} by the attribute.
+     *
+     * @param element   the name of the elements.
+     * @param attribute the name of the attribute.
+     * @param value     the value of the attribute.
+     * @return the elements in document order.
+     * @throws FralaxException thrown when an error occurs during parsing.
+     */
+    default List<XmlContext> lookup(final String element, final String attribute, final String value) throws FralaxException {
+        if (value.indexOf('\'') != -1 && value.indexOf('"') != -1) {
+            throw new FralaxException("value " + value + " can not be expressed as xpath literal");
+        }
+        final char quote = value.indexOf('\'') == -1 ? '\'' : '"';
+        return selectAll("//" + element + "[@" + attribute + "=" + quote + value + quote + "]");
+    }
+
     /**
      * Returns object as unformatted String (no indentation/line-breaks).
      *
@@ -52,6 +551,53 @@ public interface XmlContext {
      */
     String asString();
 
+    /**
+     * Returns object exactly as written in the parsed document, including whitespace, comments and the original
+     * formatting of its children. For the root context this is the complete document. Implementations with access to the
+     * original document bytes return a slice of them, which is considerably cheaper than {@link #asString()} for large objects.
+     *
+     * @return object as found in the parsed document.
+     */
+    default String asFragment() {
+        return asString();
+    }
+
+    /**
+     * Writes object as returned by {@link #asFragment()} to the stream, without materializing it as String if the
+     * implementation has access to the original document bytes. The bytes are written in the encoding of the parsed
+     * document, implementations without access to the document bytes write UTF-8. The stream is not closed.
+     *
+     * @param outputStream the stream to write to.
+     * @throws IOException thrown when writing to the stream fails.
+     */
+    default void writeTo(final OutputStream outputStream) throws IOException {
+        outputStream.write(asFragment().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes object as returned by {@link #asFragment()} to the channel, see {@link #writeTo(OutputStream)}.
+     *
+     * @param channel the channel to write to.
+     * @throws IOException thrown when writing to the channel fails.
+     */
+    default void writeTo(final WritableByteChannel channel) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(asFragment().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Appends object as returned by {@link #asFragment()}, decoding it piecewise if the implementation has access to the
+     * original document bytes.
+     *
+     * @param appendable the appendable to write to, e.g. a {@link java.io.Writer} or {@link StringBuilder}.
+     * @throws IOException thrown when appending fails.
+     */
+    default void writeTo(final Appendable appendable) throws IOException {
+        appendable.append(asFragment());
+    }
+
     /**
      * Returns object as unformatted String if {@code formatted} is set to {@code false} ({@link #asString()})
      * or the object correctly indented and with correct line-breaks otherwise.
@@ -1,5 +1,11 @@
 package net.onenandone.fralax;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
 /**
  * A simple XmlParser that supports loading ina file parsing it and supports further searches on the returned DOM (as an XmlContext).
  */
@@ -13,4 +19,79 @@ public interface XmlParser {
      */
     XmlContext parse(final String file);
 
+    /**
+     * Returns the parsed file after running it through the parser.
+     *
+     * @param file file to parse.
+     * @return parsed xml as xml Context.
+     */
+    default XmlContext parse(final Path file) {
+        return parse(file.toString());
+    }
+
+    /**
+     * Tells whether the parser can parse in-memory documents, so documents are only read into memory if it can. Parsers
+     * that implement {@link #parse(byte[])} have to return {@code true}.
+     *
+     * @return {@code true} if the parser supports {@link #parse(byte[])}, {@link #parse(ByteBuffer)} and {@link #parse(InputStream)}.
+     */
+    default boolean supportsInMemoryDocuments() {
+        return false;
+    }
+
+    /**
+     * Returns the parsed in-memory document after running it through the parser. Implementations may keep a reference to
+     * the passed array, it must therefore not be modified afterwards.
+     *
+     * @param xml the document to parse.
+     * @return parsed xml as xml Context.
+     * @throws UnsupportedOperationException thrown when the parser only supports parsing files.
+     */
+    default XmlContext parse(final byte[] xml) {
+        throw new UnsupportedOperationException("parser " + getClass().getCanonicalName() + " does not support in-memory documents");
+    }
+
+    /**
+     * Returns the parsed in-memory document (the remaining bytes of the buffer) after running it through the parser.
+     *
+     * @param xml the document to parse.
+     * @return parsed xml as xml Context.
+     * @throws UnsupportedOperationException thrown when the parser only supports parsing files.
+     * @see #parse(byte[])
+     */
+    default XmlContext parse(final ByteBuffer xml) {
+        if (!supportsInMemoryDocuments()) {
+            throw new UnsupportedOperationException("parser " + getClass().getCanonicalName() + " does not support in-memory documents");
+        }
+        final byte[] xmlByteArray = new byte[xml.remaining()];
+        xml.duplicate().get(xmlByteArray);
+        return parse(xmlByteArray);
+    }
+
+    /**
+     * Returns the document read from the stream after running it through the parser. The stream is read completely but not
+     * closed, unless the parser only supports parsing files, which fails without reading the stream.
+     *
+     * @param xml the stream to read the document from.
+     * @return parsed xml as xml Context.
+     * @throws UnsupportedOperationException thrown when the parser only supports parsing files.
+     * @see #parse(byte[])
+     */
+    default XmlContext parse(final InputStream xml) {
+        if (!supportsInMemoryDocuments()) {
+            throw new UnsupportedOperationException("parser " + getClass().getCanonicalName() + " does not support in-memory documents");
+        }
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        try {
+            int read;
+            while ((read = xml.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+        } catch (final IOException e) {
+            throw new FralaxException("Error in reading Input Stream", e);
+        }
+        return parse(outputStream.toByteArray());
+    }
+
 }
@@ -0,0 +1,95 @@
+package net.onenandone.fralax.parser;
+
+import com.ximpleware.AutoPilot;
+import com.ximpleware.NavException;
+import com.ximpleware.VTDNav;
+import com.ximpleware.XPathEvalException;
+import com.ximpleware.XPathParseException;
+import net.onenandone.fralax.FralaxException;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A hash index of the elements of one {@link VtdDocument} with a name by the value of one of their attributes, so
+ * {@code //element[@attribute='value']} is answered without scanning the document. As documents never change, the index
+ * is built once and never becomes stale, a reloaded document is indexed again.
+ */
+final class AttributeIndex {
+
+    private static final int[] NO_ELEMENTS = new int[0];
+
+    private final Map<String, int[]> elements;
+
+    private AttributeIndex(final Map<String, int[]> elements) {
+        this.elements = elements;
+    }
+
+    /**
+     * Indexes all elements of the document with the name that have the attribute, in one pass.
+     *
+     * @param document  the document to index.
+     * @param element   the name of the elements, qualified with the prefix of its namespace if it has one.
+     * @param attribute the name of the attribute, qualified with the prefix of its namespace if it has one.
+     * @return the index.
+     * @throws FralaxException thrown when the names are no valid xpath names or the document can not be navigated.
+     */
+    static AttributeIndex build(final VtdDocument document, final String element, final String attribute) {
+        final XPathCache.Key key = new XPathCache.Key("//" + element + "[@" + attribute + "]", document.getNamespaces());
+        final VTDNav navigation = document.navigate(document.getRootIndex());
+        final AutoPilot autoPilot;
+        try {
+            autoPilot = document.getQueries().acquire(key);
+        } catch (XPathParseException e) {
+            throw new FralaxException("Xpath can not be selected from Parser", e);
+        }
+        autoPilot.bind(navigation);
+        final Map<String, Elements> elements = new HashMap<>();
+        try {
+            int elementIndex;
+            while ((elementIndex = autoPilot.evalXPath()) != -1) {
+                // the navigation is positioned at the element, values are compared like xpath does: references resolved,
+                // whitespace kept as it is
+                elements.computeIfAbsent(navigation.toString(navigation.getAttrVal(attribute)), value -> new Elements()).add(elementIndex);
+            }
+        } catch (XPathEvalException | NavException e) {
+            throw new FralaxException("failed to index " + element + "/@" + attribute, e);
+        } finally {
+            autoPilot.resetXPath();
+            document.getQueries().release(key, autoPilot);
+        }
+        final Map<String, int[]> frozen = new HashMap<>(elements.size() * 4 / 3 + 1);
+        elements.forEach((value, indexed) -> frozen.put(value, indexed.toArray()));
+        return new AttributeIndex(frozen);
+    }
+
+    /**
+     * @param value the value of the attribute.
+     * @return the token indexes of the elements with the value in document order, empty if there is none.
+     */
+    int[] get(final String value) {
+        return elements.getOrDefault(value, NO_ELEMENTS);
+    }
+
+    /**
+     * The token indexes of the elements with one value while the index is built, growing by doubling so values shared by
+     * many elements are collected in linear time.
+     */
+    private static final class Elements {
+
+        private int[] indexes = new int[1];
+        private int size;
+
+        private void add(final int index) {
+            if (size == indexes.length) {
+                indexes = Arrays.copyOf(indexes, size << 1);
+            }
+            indexes[size++] = index;
+        }
+
+        private int[] toArray() {
+            return size == indexes.length ? indexes : Arrays.copyOf(indexes, size);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package net.onenandone.fralax.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * A checksum of the first and last 4 KB of a file. Together with size and modification time it tells whether a file
+ * changed since it has been parsed, also on file systems with a coarse modification time, on which an edit may keep size
+ * and modification time. Only an edit that keeps the size, happens within the same tick of the modification time and leaves
+ * the first and last block untouched goes unnoticed. Used by the {@link IndexedVtdXmlParser} to validate its sidecars and by
+ * the {@link net.onenandone.fralax.DocumentCache} to validate its documents.
+ */
+public final class FileChecksum {
+
+    /** The number of bytes at the start and at the end of the file covered by the checksum. */
+    public static final int BLOCK_SIZE = 4096;
+
+    private FileChecksum() {
+    }
+
+    /**
+     * Computes the checksum of a document read completely.
+     *
+     * @param xml the document.
+     * @return the CRC32 of its first and last block.
+     */
+    public static long of(final byte[] xml) {
+        final int tail = Math.max(BLOCK_SIZE, xml.length - BLOCK_SIZE);
+        return checksum(ByteBuffer.wrap(xml, 0, Math.min(BLOCK_SIZE, xml.length)),
+                ByteBuffer.wrap(xml, Math.min(tail, xml.length), Math.max(0, xml.length - tail)));
+    }
+
+    /**
+     * Computes the checksum of a file by reading only its first and last block.
+     *
+     * @param file the file.
+     * @param size the size of the file.
+     * @return the CRC32 of its first and last block.
+     * @throws IOException thrown when the file can not be read.
+     */
+    public static long of(final File file, final long size) throws IOException {
+        final long tail = Math.max(BLOCK_SIZE, size - BLOCK_SIZE);
+        final ByteBuffer head = ByteBuffer.allocate((int) Math.min(BLOCK_SIZE, size));
+        final ByteBuffer end = ByteBuffer.allocate((int) Math.max(0, size - tail));
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            readFully(channel, head, 0);
+            readFully(channel, end, tail);
+        }
+        head.flip();
+        end.flip();
+        return checksum(head, end);
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new IOException("file ended while computing its checksum");
+            }
+        }
+    }
+
+    private static long checksum(final ByteBuffer head, final ByteBuffer tail) {
+        final CRC32 crc = new CRC32();
+        crc.update(head);
+        crc.update(tail);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,124 @@
+package net.onenandone.fralax.parser;
+
+import com.ximpleware.IndexReadException;
+import com.ximpleware.IndexWriteException;
+import com.ximpleware.ParseException;
+import com.ximpleware.VTDGen;
+import com.ximpleware.VTDNav;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+
+/**
+ * A {@link VtdXmlParser} that persists the VTD index of a parsed file in a sidecar file next to it ({@code <file>.vxl}).
+ * As long as size, modification time and the {@link FileChecksum} of the xml file match the ones recorded in the sidecar,
+ * later parses (also reloads of a {@link net.onenandone.fralax.ManagedXmlContext}) load the index instead of tokenizing the
+ * document again, which reduces parsing to the cost of reading the sidecar. Files whose edits the checksum may miss should
+ * be parsed with the {@link VtdXmlParser} instead. Select it like any other parser, e.g.
+ * <pre>
+ * {@code
+ * XmlContext xml = Fralax.parse(fileToParse, IndexedVtdXmlParser.class);
+ * }
+ * </pre>
+ * The sidecar uses the index format of VTD-XML ({@link VTDGen#writeIndex(OutputStream)}) which includes the document itself,
+ * preceded by a small header. If the sidecar can not be written, e.g. in a read-only directory, the file is parsed as usual.
+ */
+@NoArgsConstructor(access = AccessLevel.PUBLIC)
+public class IndexedVtdXmlParser extends VtdXmlParser {
+
+    /** Extension appended to the name of the xml file to get the name of its sidecar. */
+    public static final String SIDECAR_EXTENSION = ".vxl";
+
+    private static final long SIDECAR_MAGIC = 0x4672614c61585632L; // "FraLaXV2"
+
+    @Override
+    protected VTDNav navigate(final File file) throws IOException, ParseException {
+        final File sidecar = new File(file.getPath() + SIDECAR_EXTENSION);
+        final long size = file.length();
+        final long lastModified = file.lastModified();
+
+        final VTDNav indexedNavigation = load(file, sidecar, size, lastModified);
+        if (indexedNavigation != null) {
+            return indexedNavigation;
+        }
+        final byte[] xml = read(file);
+        final VTDGen vtdGen = tokenize(xml);
+        // only persist the index if the file did not change while reading it
+        if (file.length() == size && file.lastModified() == lastModified) {
+            store(vtdGen, sidecar, size, lastModified, FileChecksum.of(xml));
+        }
+        return vtdGen.getNav();
+    }
+
+    /**
+     * Loads the index from the sidecar if it belongs to the current version of the xml file.
+     *
+     * @return the navigation of the indexed document or {@code null} if there is no matching sidecar.
+     */
+    private static VTDNav load(final File file, final File sidecar, final long size, final long lastModified) {
+        if (!sidecar.isFile()) {
+            return null;
+        }
+        try (final InputStream inputStream = new BufferedInputStream(Files.newInputStream(sidecar.toPath()))) {
+            final DataInputStream header = new DataInputStream(inputStream);
+            if (header.readLong() != SIDECAR_MAGIC || header.readLong() != size || header.readLong() != lastModified
+                    || header.readLong() != FileChecksum.of(file, size)) {
+                return null;
+            }
+            return new VTDGen().loadIndex(inputStream);
+        } catch (final IOException | IndexReadException e) {
+            // a broken sidecar is replaced by the next successful parse
+            return null;
+        }
+    }
+
+    /**
+     * Writes the index to the sidecar. The sidecar is written to a temporary file first and then moved into place, so
+     * concurrent parses never see an incomplete sidecar.
+     */
+    private static void store(final VTDGen vtdGen, final File sidecar, final long size, final long lastModified, final long checksum) {
+        Path temporarySidecar = null;
+        try {
+            temporarySidecar = Files.createTempFile(sidecar.getAbsoluteFile().getParentFile().toPath(), sidecar.getName(), ".tmp");
+            try (final OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(temporarySidecar))) {
+                final DataOutputStream header = new DataOutputStream(outputStream);
+                header.writeLong(SIDECAR_MAGIC);
+                header.writeLong(size);
+                header.writeLong(lastModified);
+                header.writeLong(checksum);
+                vtdGen.writeIndex(outputStream);
+            }
+            try {
+                Files.move(temporarySidecar, sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(temporarySidecar, sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (final IOException | IndexWriteException e) {
+            // the sidecar is an optimization only, the document has been parsed successfully anyway
+            deleteQuietly(temporarySidecar);
+        }
+    }
+
+    private static void deleteQuietly(final Path path) {
+        if (path != null) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (final IOException e) {
+                // nothing left to do
+            }
+        }
+    }
+}
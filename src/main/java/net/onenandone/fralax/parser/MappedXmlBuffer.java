@@ -0,0 +1,164 @@
+package net.onenandone.fralax.parser;
+
+import com.ximpleware.extended.IByteBuffer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only {@link IByteBuffer} over a memory mapped file of arbitrary size, used as document source for the extended
+ * (huge) VTD parser. The file is mapped in chunks of 1 GB, the channel is closed right after mapping as the mappings stay valid
+ * until they are garbage collected.
+ */
+class MappedXmlBuffer implements IByteBuffer {
+
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+    private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final MappedByteBuffer[] chunks;
+    private final long length;
+
+    /**
+     * Maps the passed file into memory.
+     *
+     * @param file the file to map.
+     * @throws IOException thrown when the file can not be opened or mapped.
+     */
+    MappedXmlBuffer(final File file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            this.length = channel.size();
+            this.chunks = new MappedByteBuffer[(int) ((length + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+            for (int i = 0; i < chunks.length; i++) {
+                final long position = i * CHUNK_SIZE;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHUNK_SIZE, length - position));
+            }
+        }
+    }
+
+    @Override
+    public byte byteAt(final long index) {
+        return chunks[(int) (index >>> CHUNK_BITS)].get((int) (index & CHUNK_MASK));
+    }
+
+    /**
+     * Copies a range of the mapped document, that may span multiple chunks, into the passed array.
+     *
+     * @param offset the offset in the document to start copying from.
+     * @param target the array to copy to.
+     * @param targetOffset the offset in the target array.
+     * @param count the number of bytes to copy.
+     */
+    void copy(final long offset, final byte[] target, final int targetOffset, final int count) {
+        long position = offset;
+        int copied = 0;
+        while (copied < count) {
+            final ByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)].duplicate();
+            chunk.position((int) (position & CHUNK_MASK));
+            final int length = Math.min(count - copied, chunk.remaining());
+            chunk.get(target, targetOffset + copied, length);
+            copied += length;
+            position += length;
+        }
+    }
+
+    /**
+     * Hands a range of the mapped document, that may span multiple chunks, to the writer without copying it.
+     *
+     * @param offset the offset in the document to start at.
+     * @param count  the number of bytes to write.
+     * @param writer the writer consuming the range, chunk by chunk.
+     * @throws IOException thrown by the writer.
+     */
+    void write(final long offset, final long count, final ChunkWriter writer) throws IOException {
+        long position = offset;
+        final long end = offset + count;
+        while (position < end) {
+            final ByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)].duplicate();
+            chunk.position((int) (position & CHUNK_MASK));
+            chunk.limit((int) Math.min(chunk.capacity(), chunk.position() + end - position));
+            position += chunk.remaining();
+            writer.write(chunk);
+        }
+    }
+
+    /**
+     * @param offset the offset in the document to start at.
+     * @param count  the number of bytes to read.
+     * @return a stream reading a range of the mapped document.
+     */
+    InputStream inputStream(final long offset, final long count) {
+        return new InputStream() {
+            private long position = offset;
+            private final long end = offset + count;
+
+            @Override
+            public int read() {
+                return position < end ? byteAt(position++) & 0xff : -1;
+            }
+
+            @Override
+            public int read(final byte[] target, final int targetOffset, final int length) {
+                if (length == 0) {
+                    return 0;
+                }
+                if (position >= end) {
+                    return -1;
+                }
+                final int read = (int) Math.min(length, end - position);
+                copy(position, target, targetOffset, read);
+                position += read;
+                return read;
+            }
+        };
+    }
+
+    @Override
+    public byte[] getBytes(final int offset, final int len) {
+        final byte[] bytes = new byte[len];
+        copy(offset, bytes, 0, len);
+        return bytes;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    /** Only supported for documents that fit into a single byte array. */
+    @Override
+    public byte[] getBytes() {
+        if (length > VtdXmlParser.MAX_DOCUMENT_SIZE) {
+            throw new UnsupportedOperationException("document of " + length + " bytes does not fit into a byte array");
+        }
+        return getBytes(0, (int) length);
+    }
+
+    @Override
+    public void writeToFileOutputStream(final FileOutputStream outputStream, final long offset, final long len) throws IOException {
+        final FileChannel channel = outputStream.getChannel();
+        write(offset, len, chunk -> {
+            while (chunk.hasRemaining()) {
+                channel.write(chunk);
+            }
+        });
+    }
+
+    /**
+     * Consumes a range of the mapped document chunk by chunk.
+     */
+    interface ChunkWriter {
+
+        /**
+         * @param chunk the next part of the range, positioned at its start.
+         * @throws IOException thrown when the chunk can not be written.
+         */
+        void write(ByteBuffer chunk) throws IOException;
+    }
+}
@@ -0,0 +1,100 @@
+package net.onenandone.fralax.parser;
+
+import net.onenandone.fralax.XmlContext;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded, least recently used cache of the results of the queries on one {@link VtdDocument}. Results are keyed by the
+ * element the query was evaluated on and the resolved xpath. As documents never change, results never become stale, a
+ * reloaded document comes with a cache of its own.
+ */
+final class ResultCache {
+
+    private final Map<Key, List<XmlContext>> results = new LinkedHashMap<>(16, 0.75f, true);
+    private int maximumSize;
+
+    /**
+     * @param maximumSize the maximum number of results kept.
+     */
+    ResultCache(final int maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Changes the maximum number of results kept, the least recently used results are evicted if more are cached.
+     *
+     * @param maximumSize the maximum number of results kept.
+     */
+    void setMaximumSize(final int maximumSize) {
+        synchronized (results) {
+            this.maximumSize = maximumSize;
+            evict();
+        }
+    }
+
+    /**
+     * @param index the token index of the element the query is evaluated on.
+     * @param xpath the resolved xpath of the query.
+     * @return the cached result, which must not be modified, or {@code null} if it is not cached.
+     */
+    List<XmlContext> get(final int index, final String xpath) {
+        synchronized (results) {
+            return results.get(new Key(index, xpath));
+        }
+    }
+
+    /**
+     * @param index  the token index of the element the query has been evaluated on.
+     * @param xpath  the resolved xpath of the query.
+     * @param result the result, which must not be modified afterwards.
+     */
+    void put(final int index, final String xpath, final List<XmlContext> result) {
+        synchronized (results) {
+            results.put(new Key(index, xpath), result);
+            evict();
+        }
+    }
+
+    private void evict() {
+        final Iterator<Key> keys = results.keySet().iterator();
+        while (results.size() > maximumSize) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    /**
+     * Identifies a result by the element and the xpath it was selected with.
+     */
+    private static final class Key {
+
+        private final int index;
+        private final String xpath;
+
+        private Key(final int index, final String xpath) {
+            this.index = index;
+            this.xpath = xpath;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return index == key.index && xpath.equals(key.xpath);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * index + xpath.hashCode();
+        }
+    }
+}
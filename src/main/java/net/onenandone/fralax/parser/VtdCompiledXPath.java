@@ -0,0 +1,56 @@
+package net.onenandone.fralax.parser;
+
+import net.onenandone.fralax.CompiledXPath;
+import net.onenandone.fralax.FralaxException;
+
+import java.util.Map;
+
+/**
+ * A {@link CompiledXPath} of the {@link VtdXmlParser} that selects through {@link XPathCache.Key#pinned() pinned} keys,
+ * so its compiled queries are kept by each document it is evaluated on: the query is compiled once per document and never
+ * evicted by other queries. The query is pinned as evaluated by root contexts and as evaluated by selected contexts, see
+ * {@link VtdXmlParserContext#anchor(String)}.
+ */
+final class VtdCompiledXPath extends CompiledXPath {
+
+    private final Map<String, String> namespaces;
+    private final XPathCache.Key rootKey;
+    private final XPathCache.Key anchoredKey;
+
+    /**
+     * @param xpath      the xpath query.
+     * @param namespaces the namespaces declared for the query.
+     */
+    VtdCompiledXPath(final String xpath, final Map<String, String> namespaces) {
+        super(xpath);
+        this.namespaces = namespaces;
+        this.rootKey = new XPathCache.Key(xpath, namespaces).pinned();
+        this.anchoredKey = anchoredKey(xpath, namespaces);
+    }
+
+    /** @return the pinned key of the xpath as evaluated by selected contexts, {@code null} if it can not be anchored. */
+    private XPathCache.Key anchoredKey(final String xpath, final Map<String, String> namespaces) {
+        final String anchoredXpath;
+        try {
+            anchoredXpath = VtdXmlParserContext.anchor(xpath);
+        } catch (final FralaxException e) {
+            // selected contexts reject the query when they evaluate it
+            return null;
+        }
+        return anchoredXpath.equals(xpath) ? rootKey : new XPathCache.Key(anchoredXpath, namespaces).pinned();
+    }
+
+    /**
+     * Returns the pinned key a context evaluates the query with, without resolving the query again.
+     *
+     * @param namespaces      the namespaces of the context.
+     * @param documentContext whether the context is the parsed document, which evaluates the query as it is, or a selected
+     *                        context, which anchors it.
+     * @return the pinned key or {@code null} if the namespaces differ from those the handle has been compiled with or the
+     * query can not be anchored.
+     */
+    XPathCache.Key key(final Map<String, String> namespaces, final boolean documentContext) {
+        final XPathCache.Key key = documentContext ? rootKey : anchoredKey;
+        return key != null && (this.namespaces == namespaces || this.namespaces.equals(namespaces)) ? key : null;
+    }
+}
@@ -0,0 +1,254 @@
+package net.onenandone.fralax.parser;
+
+import com.ximpleware.NavException;
+import com.ximpleware.VTDNav;
+import net.onenandone.fralax.FralaxException;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A document parsed by a {@link VtdXmlParser}, shared by all contexts selected from it. Contexts only keep the index of their
+ * token in the document and materialize a navigation from the one held here when they are queried.
+ * <p />
+ * The navigation held by the document is never moved, it only serves as template for {@link VTDNav#cloneNav()}. A document
+ * is therefore safe to be shared by any number of threads, each thread navigates on clones of its own. Clones that are only
+ * needed for the duration of an operation are pooled by the document, as are compiled queries, so they become unreachable
+ * together with it.
+ */
+final class VtdDocument {
+
+    private static final Pattern NAMESPACE_PATTERN = Pattern.compile("xmlns(:(.+))?");
+
+    /** The most navigations kept for reuse by a document, further ones are left to the garbage collector. */
+    private static final int MAX_POOLED_NAVIGATIONS = 2 * Runtime.getRuntime().availableProcessors();
+
+    private final VTDNav navigation;
+    private final Map<String, String> namespaces;
+    private final int offset;
+    private final int length;
+    private final Charset charset;
+    private final Queue<VTDNav> pooledNavigations = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledNavigationCount = new AtomicInteger();
+    private final XPathCache.Queries queries = VtdXmlParser.XPATH_CACHE.newQueries();
+    private final ConcurrentMap<String, AttributeIndex> attributeIndexes = new ConcurrentHashMap<>();
+    private volatile ResultCache resultCache;
+    private volatile long retainedBytes;
+
+    /**
+     * @param navigation the navigation of the parsed document, positioned at its root element.
+     * @param offset     the offset of the document within the array.
+     * @param length     the length of the document.
+     */
+    VtdDocument(final VTDNav navigation, final int offset, final int length) {
+        this.navigation = navigation;
+        this.offset = offset;
+        this.length = length;
+        this.charset = VtdEncodings.charsetOf(navigation.getEncoding());
+        this.namespaces = Collections.unmodifiableMap(analyzeNamespaces(navigation.cloneNav()));
+    }
+
+    /**
+     * Analyzes namespaces of the specified XML file.
+     * <p />
+     * All namespaces will be registered by the prefix defined in the XML. The Xpath will therefore rely on the same namespace prefixes as of the XML.
+     */
+    private static Map<String, String> analyzeNamespaces(final VTDNav namespaceNavigation) {
+        final Map<String, String> registeredNamespaces = new HashMap<>();
+        boolean rootElementAnalyzed = false;
+        int index = namespaceNavigation.getRootIndex();
+        while (!rootElementAnalyzed) {
+            index++;
+            if (namespaceNavigation.getTokenType(index) == VTDNav.TOKEN_STARTING_TAG || namespaceNavigation.getTokenType(index) == VTDNav.TOKEN_ENDING_TAG) {
+                rootElementAnalyzed = true;
+            } else {
+                try {
+                    if (namespaceNavigation.getTokenType(index) == VTDNav.TOKEN_ATTR_NS) {
+                        final Matcher namespaceMatcher = NAMESPACE_PATTERN.matcher(namespaceNavigation.toString(index));
+                        if (namespaceMatcher.matches()) {
+                            final String prefix = namespaceMatcher.group(2);
+                            index++;
+                            if (prefix != null) {
+                                registeredNamespaces.put(prefix, namespaceNavigation.toString(index));
+                            }
+                        }
+                    }
+                } catch (final NavException e) {
+                    throw new FralaxException("could not parse namespaces", e);
+                }
+            }
+        }
+        return registeredNamespaces;
+    }
+
+    /**
+     * Creates a navigation of its own positioned at an element of the document.
+     *
+     * @param index the token index of the element.
+     * @return the navigation, which may be moved freely by the caller.
+     */
+    VTDNav navigate(final int index) {
+        final VTDNav elementNavigation = navigation.cloneNav();
+        if (index != elementNavigation.getRootIndex()) {
+            try {
+                elementNavigation.recoverNode(index);
+            } catch (final NavException e) {
+                throw new FralaxException("failed to locate element in document", e);
+            }
+        }
+        return elementNavigation;
+    }
+
+    /**
+     * Takes a navigation out of the pool of the document and positions it at an element, or creates one if the pool is
+     * empty. Saves cloning a navigation for operations that complete before they return, e.g. the transformation of an
+     * element to string, which hand it back by {@link #release(VTDNav)}. Use {@link #navigate(int)} for navigations that
+     * outlive the operation (e.g. lazy selections).
+     *
+     * @param index the token index of the element.
+     * @return the navigation, which is used by the caller only until it is released.
+     */
+    VTDNav borrow(final int index) {
+        final VTDNav pooledNavigation = pooledNavigations.poll();
+        if (pooledNavigation == null) {
+            return navigate(index);
+        }
+        pooledNavigationCount.decrementAndGet();
+        try {
+            pooledNavigation.toElement(VTDNav.ROOT);
+            if (index != pooledNavigation.getRootIndex()) {
+                pooledNavigation.recoverNode(index);
+            }
+        } catch (final NavException e) {
+            throw new FralaxException("failed to locate element in document", e);
+        }
+        return pooledNavigation;
+    }
+
+    /**
+     * Puts a borrowed navigation back into the pool, unless the pool is full.
+     *
+     * @param borrowedNavigation the navigation taken by {@link #borrow(int)}, which must not be used afterwards.
+     */
+    void release(final VTDNav borrowedNavigation) {
+        if (pooledNavigationCount.incrementAndGet() <= MAX_POOLED_NAVIGATIONS) {
+            pooledNavigations.offer(borrowedNavigation);
+        } else {
+            pooledNavigationCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Enables, resizes or disables the cache of query results. Results cached already are kept as long as the cache stays
+     * enabled, as all contexts of the document share it.
+     *
+     * @param maximumSize the maximum number of results kept, {@code 0} to disable caching.
+     */
+    synchronized void setResultCacheSize(final int maximumSize) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("the maximum size may not be negative");
+        }
+        if (maximumSize == 0) {
+            resultCache = null;
+        } else if (resultCache == null) {
+            resultCache = new ResultCache(maximumSize);
+        } else {
+            resultCache.setMaximumSize(maximumSize);
+        }
+    }
+
+    /** @return the cache of query results or {@code null} if results are not cached. */
+    ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Indexes the elements with the name by the value of the attribute, unless they are indexed already.
+     *
+     * @param element   the name of the elements.
+     * @param attribute the name of the attribute.
+     */
+    void indexAttribute(final String element, final String attribute) {
+        attributeIndexes.computeIfAbsent(element + "/@" + attribute, key -> AttributeIndex.build(this, element, attribute));
+    }
+
+    /**
+     * @param element   the name of the elements.
+     * @param attribute the name of the attribute.
+     * @return the index of the elements by the value of the attribute or {@code null} if they are not indexed.
+     */
+    AttributeIndex getAttributeIndex(final String element, final String attribute) {
+        return attributeIndexes.isEmpty() ? null : attributeIndexes.get(element + "/@" + attribute);
+    }
+
+    /** @return whether any elements are indexed by an attribute. */
+    boolean hasAttributeIndexes() {
+        return !attributeIndexes.isEmpty();
+    }
+
+    /** @return the compiled queries evaluated on the document. */
+    XPathCache.Queries getQueries() {
+        return queries;
+    }
+
+    /** @return the token index of the root element. */
+    int getRootIndex() {
+        return navigation.getRootIndex();
+    }
+
+    /** @return the namespaces declared on the root element, by prefix. */
+    Map<String, String> getNamespaces() {
+        return namespaces;
+    }
+
+    /** @return the array holding the document, which must not be modified. */
+    byte[] getBytes() {
+        return navigation.getXML().getBytes();
+    }
+
+    /** @return the offset of the document within {@link #getBytes()}. */
+    int getOffset() {
+        return offset;
+    }
+
+    /** @return the length of the document in bytes. */
+    int getLength() {
+        return length;
+    }
+
+    /**
+     * Counts the memory retained by the document once: the array holding it, the VTD record of 8 bytes per token and the
+     * location cache entries of the elements on the first three levels, 8 bytes each on the first two and 4 bytes on the third.
+     *
+     * @return the retained memory in bytes.
+     */
+    long getRetainedBytes() {
+        long retained = retainedBytes;
+        if (retained == 0) {
+            final int tokenCount = navigation.getTokenCount();
+            retained = getBytes().length + 8L * tokenCount;
+            for (int index = 0; index < tokenCount; index++) {
+                if (navigation.getTokenType(index) == VTDNav.TOKEN_STARTING_TAG) {
+                    final int depth = navigation.getTokenDepth(index);
+                    retained += depth == 1 || depth == 2 ? 8 : depth == 3 ? 4 : 0;
+                }
+            }
+            retainedBytes = retained;
+        }
+        return retained;
+    }
+
+    /** @return the charset the document is encoded in. */
+    Charset getCharset() {
+        return charset;
+    }
+}
@@ -0,0 +1,90 @@
+package net.onenandone.fralax.parser;
+
+import com.ximpleware.VTDNav;
+import net.onenandone.fralax.FralaxException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+
+/**
+ * Maps the document encodings detected by VTD to Java {@link Charset}s, so raw document bytes can be decoded correctly.
+ */
+final class VtdEncodings {
+
+    private static final int DECODE_BUFFER_SIZE = 8192;
+
+    private VtdEncodings() {
+    }
+
+    /**
+     * @param encoding the encoding as reported by the VTD navigation (one of the {@code VTDNav.FORMAT_*} constants).
+     * @return the charset to decode bytes of a document with the passed encoding.
+     * @throws FralaxException thrown when the encoding has no counterpart in the running JVM.
+     */
+    static Charset charsetOf(final int encoding) {
+        switch (encoding) {
+            case VTDNav.FORMAT_UTF8:
+                return StandardCharsets.UTF_8;
+            case VTDNav.FORMAT_ASCII:
+                return StandardCharsets.US_ASCII;
+            case VTDNav.FORMAT_ISO_8859_1:
+                return StandardCharsets.ISO_8859_1;
+            case VTDNav.FORMAT_UTF_16BE:
+                return StandardCharsets.UTF_16BE;
+            case VTDNav.FORMAT_UTF_16LE:
+                return StandardCharsets.UTF_16LE;
+            default:
+                if (encoding >= VTDNav.FORMAT_ISO_8859_2 && encoding <= VTDNav.FORMAT_ISO_8859_16) {
+                    return charsetForName("ISO-8859-" + (encoding - VTDNav.FORMAT_ISO_8859_2 + 2));
+                } else if (encoding >= VTDNav.FORMAT_WIN_1250 && encoding <= VTDNav.FORMAT_WIN_1258) {
+                    return charsetForName("windows-" + (encoding - VTDNav.FORMAT_WIN_1250 + 1250));
+                }
+                throw new FralaxException("Unknown document encoding " + encoding);
+        }
+    }
+
+    /**
+     * Decodes the remaining bytes of the buffer in chunks and appends them, without materializing the complete text.
+     *
+     * @param buffer     the bytes to decode.
+     * @param charset    the charset of the bytes.
+     * @param appendable the appendable to append the decoded characters to.
+     * @throws IOException thrown when appending fails or the bytes are malformed.
+     */
+    static void decode(final ByteBuffer buffer, final Charset charset, final Appendable appendable) throws IOException {
+        final CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final CharBuffer chars = CharBuffer.allocate(DECODE_BUFFER_SIZE);
+        CoderResult result;
+        do {
+            result = decoder.decode(buffer, chars, true);
+            flush(chars, appendable);
+        } while (result.isOverflow());
+        do {
+            result = decoder.flush(chars);
+            flush(chars, appendable);
+        } while (result.isOverflow());
+    }
+
+    private static void flush(final CharBuffer chars, final Appendable appendable) throws IOException {
+        chars.flip();
+        appendable.append(chars);
+        chars.clear();
+    }
+
+    private static Charset charsetForName(final String name) {
+        try {
+            return Charset.forName(name);
+        } catch (final UnsupportedCharsetException e) {
+            throw new FralaxException("Document encoding " + name + " is not supported by this JVM", e);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package net.onenandone.fralax.parser;
+
+import com.ximpleware.extended.ParseExceptionHuge;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import net.onenandone.fralax.Fralax;
+import net.onenandone.fralax.FralaxException;
+import net.onenandone.fralax.XmlParser;
+
+import java.io.File;
+import java.io.IOException;
+
+
+/**
+ * A XmlParser for documents of any size (also larger than 2 GB) using the extended ("huge") parser of
+ * <a href="http://vtd-xml.sourceforge.net/">VTD-XML</a>. The document is memory mapped and never copied onto the heap,
+ * only the VTD index itself is held in memory. Select it like any other parser, e.g.
+ * <pre>
+ * {@code
+ * XmlContext xml = Fralax.parse(fileToParse, VtdHugeXmlParser.class);
+ * }
+ * </pre>
+ * Contexts created by this parser serialize like the ones of {@link VtdXmlParser}, the original document text is returned by
+ * {@link net.onenandone.fralax.XmlContext#asFragment()} and streamed by the {@code writeTo} methods.
+ */
+@NoArgsConstructor(access = AccessLevel.PUBLIC)
+public class VtdHugeXmlParser implements XmlParser {
+
+    @Override
+    public VtdHugeXmlParserContext parse(final String file) {
+        try {
+            final long start = System.nanoTime();
+            final MappedXmlBuffer xml = new MappedXmlBuffer(new File(file));
+            final VtdNavigationHuge.Generator vtdGen = new VtdNavigationHuge.Generator();
+            vtdGen.setDoc(xml);
+            vtdGen.parse(true); // set namespace awareness to true
+            final VtdNavigationHuge navigation = vtdGen.getNav();
+            final VtdHugeXmlParserContext context = new VtdHugeXmlParserContext(xml, navigation);
+            Fralax.getMetrics().parsed(getClass(), System.nanoTime() - start, xml.length(), navigation.getTokenCount());
+            return context;
+        } catch (final IOException e) {
+            throw new FralaxException("Error in reading Input File " + file, e);
+        } catch (final ParseExceptionHuge e) {
+            throw new FralaxException("Error in Parsing the Input File " + file + " with parser " + getClass().toString(), e);
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package net.onenandone.fralax.parser;
+
+import com.ximpleware.extended.AutoPilotHuge;
+import com.ximpleware.extended.NavExceptionHuge;
+import com.ximpleware.extended.VTDNavHuge;
+import com.ximpleware.extended.XPathEvalExceptionHuge;
+import com.ximpleware.extended.XPathParseExceptionHuge;
+import net.onenandone.fralax.Fralax;
+import net.onenandone.fralax.FralaxException;
+import net.onenandone.fralax.XmlContext;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Represents a valid XML Document parsed by a {@link VtdHugeXmlParser}. Can be further navigated using xpath queries.
+ */
+class VtdHugeXmlParserContext implements XmlContext {
+
+    private static final Pattern NAMESPACE_PATTERN = Pattern.compile("xmlns(:(.+))?");
+    private static final Pattern INTEGRAL_NUMBER_PATTERN = Pattern.compile("-?\\d+\\.0");
+
+    private final MappedXmlBuffer xml;
+    private final VtdNavigationHuge navigation;
+    private final Map<String, String> registeredNamespaces;
+    private final boolean documentContext;
+
+    /**
+     * Default constructor used to create a newly parsed XMLContext from the navigation of a freshly parsed document.
+     *
+     * @param xml        the mapped document.
+     * @param navigation the navigation of the parsed document, positioned at its root element.
+     */
+    VtdHugeXmlParserContext(final MappedXmlBuffer xml, final VtdNavigationHuge navigation) {
+        this(xml, navigation, new HashMap<>(), true);
+        analyzeNamespaces();
+    }
+
+    /**
+     * Constructor used to create a newly parsed XMLContext from an XPath Result.
+     *
+     * @param xml                  the mapped document.
+     * @param navigation           navigation to navigate through the xpath result.
+     * @param registeredNamespaces namespaces to register for the new xml context.
+     * @param documentContext      whether the context is the parsed document itself, which evaluates queries as they are.
+     */
+    private VtdHugeXmlParserContext(final MappedXmlBuffer xml, final VtdNavigationHuge navigation, final Map<String, String> registeredNamespaces,
+                                    final boolean documentContext) {
+        this.xml = xml;
+        this.navigation = navigation;
+        this.registeredNamespaces = registeredNamespaces;
+        this.documentContext = documentContext;
+    }
+
+    /**
+     * Analyzes namespaces of the specified XML file.
+     * <p />
+     * All namespaces will be registered by the prefix defined in the XML. The Xpath will therefore rely on the same namespace prefixes as of the XML.
+     */
+    private void analyzeNamespaces() {
+        final VTDNavHuge namespaceNavigation = navigation.cloneNav();
+        boolean rootElementAnalyzed = false;
+        int index = namespaceNavigation.getRootIndex();
+        while (!rootElementAnalyzed) {
+            index++;
+            if (namespaceNavigation.getTokenType(index) == VTDNavHuge.TOKEN_STARTING_TAG || namespaceNavigation.getTokenType(index) == VTDNavHuge.TOKEN_ENDING_TAG) {
+                rootElementAnalyzed = true;
+            } else {
+                try {
+                    if (namespaceNavigation.getTokenType(index) == VTDNavHuge.TOKEN_ATTR_NS) {
+                        final Matcher namespaceMatcher = NAMESPACE_PATTERN.matcher(namespaceNavigation.toString(index));
+                        if (namespaceMatcher.matches()) {
+                            final String prefix = namespaceMatcher.group(2);
+                            index++;
+                            if (prefix != null) {
+                                registeredNamespaces.put(prefix, namespaceNavigation.toString(index));
+                            }
+                        }
+                    }
+                } catch (final NavExceptionHuge e) {
+                    throw new FralaxException("could not parse namespaces", e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Optional<XmlContext> select(final String xpath) throws FralaxException {
+        final List<XmlContext> result = selectAll(xpath);
+        if (result.size() > 1) {
+            throw new FralaxException("Tried to select one Element as result, but result was " + result.size() + " elements large.");
+        } else if (result.size() == 1) {
+            return Optional.of(result.get(0));
+        } else {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public List<XmlContext> selectAll(final String xpath) throws FralaxException {
+        final long start = System.nanoTime();
+        final List<XmlContext> result = evaluate(xpath);
+        Fralax.getMetrics().queried(xpath, System.nanoTime() - start, result.size());
+        return result;
+    }
+
+    private List<XmlContext> evaluate(final String xpath) {
+        final List<XmlContext> xmlElements = new ArrayList<>();
+
+        final VtdNavigationHuge selectionNavigation = navigation.copy();
+        final AutoPilotHuge selectionAutoPilot = new AutoPilotHuge(selectionNavigation);
+        for (Map.Entry<String, String> entry : registeredNamespaces.entrySet()) {
+            selectionAutoPilot.declareXPathNameSpace(entry.getKey(), entry.getValue());
+        }
+
+        try {
+            // queries of selected contexts, also one of the root element, are evaluated within the subtree of their element
+            selectionAutoPilot.selectXPath(documentContext ? xpath : VtdXmlParserContext.anchor(xpath));
+
+            int xpathResultIndex = selectionAutoPilot.evalXPath();
+            while (xpathResultIndex != -1) {
+                //Take into account searches for Attribute/Value of an Element
+                if (selectionNavigation.getTokenType(xpathResultIndex) == VTDNavHuge.TOKEN_CHARACTER_DATA) {
+                    xmlElements.add(new ValueContext(selectionNavigation.toNormalizedString(xpathResultIndex)));
+                } else if (selectionNavigation.getTokenType(xpathResultIndex) == VTDNavHuge.TOKEN_ATTR_NAME) {
+                    xmlElements.add(new ValueContext(selectionNavigation.toNormalizedString(xpathResultIndex + 1)));
+                } else {
+                    xmlElements.add(new VtdHugeXmlParserContext(xml, selectionNavigation.copy(), registeredNamespaces, false));
+                }
+                xpathResultIndex = selectionAutoPilot.evalXPath();
+            }
+            return xmlElements;
+        } catch (XPathEvalExceptionHuge | NavExceptionHuge e) {
+            if (" Function Expr can't eval to node set ".equals(e.getMessage())) {
+                // the extended parser renders all numbers as double, align integral numbers with the standard parser
+                final String value = selectionAutoPilot.evalXPathToString();
+                final boolean integral = INTEGRAL_NUMBER_PATTERN.matcher(value).matches();
+                return Collections.singletonList(new ValueContext(integral ? value.substring(0, value.length() - 2) : value));
+            } else if (e.getMessage().contains("binary")) {
+                throw new FralaxException("Binary Expressions are not supported", e);
+            } else {
+                throw new FralaxException("Error when navigating through XPathResults", e);
+            }
+        } catch (XPathParseExceptionHuge e) {
+            throw new FralaxException("Xpath can not be selected from Parser", e);
+        }
+    }
+
+    /**
+     * Counts the memory retained by the document on every call: the mapped document, the VTD record of 8 bytes per token and
+     * the location cache entries of the elements on the first three levels, 8 bytes each on the first two and 4 bytes on the third.
+     */
+    @Override
+    public long getRetainedBytes() {
+        final int tokenCount = navigation.getTokenCount();
+        long retained = xml.length() + 8L * tokenCount;
+        for (int index = 0; index < tokenCount; index++) {
+            if (navigation.getTokenType(index) == VTDNavHuge.TOKEN_STARTING_TAG) {
+                final int depth = navigation.getTokenDepth(index);
+                retained += depth == 1 || depth == 2 ? 8 : depth == 3 ? 4 : 0;
+            }
+        }
+        return retained;
+    }
+
+    @Override
+    public String asString() {
+        return asString(false);
+    }
+
+    /** Decodes the element (or the complete document for the root context) straight from the mapped document. */
+    @Override
+    public String asFragment() {
+        final long[] fragment = fragment();
+        final long offset = fragment[0];
+        final long length = fragment[1];
+        if (length > VtdXmlParser.MAX_DOCUMENT_SIZE) {
+            throw new FralaxException("Context of " + length + " bytes is too large to be transformed to string");
+        }
+        final byte[] bytes = new byte[(int) length];
+        xml.copy(offset, bytes, 0, bytes.length);
+        return new String(bytes, VtdEncodings.charsetOf(navigation.getEncoding()));
+    }
+
+    @Override
+    public void writeTo(final OutputStream outputStream) throws IOException {
+        writeTo(Channels.newChannel(outputStream));
+    }
+
+    @Override
+    public void writeTo(final WritableByteChannel channel) throws IOException {
+        final long[] fragment = fragment();
+        xml.write(fragment[0], fragment[1], buffer -> {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        });
+    }
+
+    @Override
+    public void writeTo(final Appendable appendable) throws IOException {
+        final long[] fragment = fragment();
+        final Reader reader = new InputStreamReader(xml.inputStream(fragment[0], fragment[1]), VtdEncodings.charsetOf(navigation.getEncoding()));
+        final CharBuffer chars = CharBuffer.allocate(8192);
+        while (reader.read(chars) != -1) {
+            chars.flip();
+            appendable.append(chars);
+            chars.clear();
+        }
+    }
+
+    /**
+     * Locates this context in the mapped document.
+     *
+     * @return the offset of this context at index 0, its length at index 1.
+     */
+    private long[] fragment() {
+        if (navigation.getCurrentIndex() == navigation.getRootIndex()) {
+            return new long[]{0, xml.length()};
+        }
+        try {
+            return navigation.copy().getElementFragment();
+        } catch (final NavExceptionHuge e) {
+            throw new FralaxException("failed to locate element in document", e);
+        }
+    }
+
+    @Override
+    public String asString(final boolean formatted) {
+        final long start = System.nanoTime();
+        final String text = serialize(formatted);
+        Fralax.getMetrics().serialized(System.nanoTime() - start, text.length());
+        return text;
+    }
+
+    /**
+     * Serializes this context the same way as {@link VtdXmlParserContext} does: the complete document for the root context,
+     * the element built from its start tag, the text or child elements and its end tag otherwise.
+     *
+     * @param formatted whether to write line breaks and indentation.
+     * @return this context as string.
+     */
+    private String serialize(final boolean formatted) {
+        if (navigation.getCurrentIndex() == navigation.getRootIndex()) {
+            return asFragment();
+        }
+        final VtdNavigationHuge elementNavigation = navigation.copy();
+        final int index = elementNavigation.getCurrentIndex();
+        try {
+            final StringBuilder curElement = new StringBuilder();
+            appendStartTag(elementNavigation, curElement);
+            if (!elementNavigation.toElement(VTDNavHuge.FIRST_CHILD)) {
+                appendText(elementNavigation, curElement);
+            } else {
+                //check for siblings so we can be sure this isn't just a single child (e.g <author><name>Hitchcock</name></author> shouldn't be linebroken/indented.)
+                if (formatted && elementNavigation.toElement(VTDNavHuge.NEXT_SIBLING)) {
+                    elementNavigation.toElement(VTDNavHuge.PREV_SIBLING);
+                    curElement.append("\n    ");
+                }
+                appendDescendants(elementNavigation, formatted, elementNavigation.getCurrentDepth() - 1, curElement);
+            }
+            curElement.append("</").append(elementNavigation.toNormalizedString(index)).append(">");
+            return curElement.toString();
+        } catch (final NavExceptionHuge e) {
+            throw new FralaxException("failed to transform to string", e);
+        }
+    }
+
+    /**
+     * Appends the start tag including all attributes of the current element.
+     *
+     * @param navigation the navigation positioned at the element.
+     * @param builder    the builder to append to.
+     * @throws NavExceptionHuge When an Error occurs navigating the attributes;
+     */
+    private static void appendStartTag(final VTDNavHuge navigation, final StringBuilder builder) throws NavExceptionHuge {
+        final int curIndex = navigation.getCurrentIndex();
+        builder.append("<").append(navigation.toNormalizedString(curIndex));
+        final int attrCount = navigation.getAttrCount();
+        for (int i = curIndex + 1; i < curIndex + 1 + attrCount * 2; i += 2) {
+            builder.append(" ").append(navigation.toNormalizedString(i)).append("=\"").append(navigation.toRawString(i + 1)).append("\"");
+        }
+        builder.append(">");
+    }
+
+    /**
+     * Appends the text of the current element, which has no child elements. The extended API offers no
+     * {@code getXPathStringVal}, so the text and CDATA tokens of the element are concatenated instead.
+     *
+     * @param navigation the navigation positioned at the element.
+     * @param builder    the builder to append to.
+     * @throws NavExceptionHuge thrown when a text token can not be decoded.
+     */
+    private static void appendText(final VTDNavHuge navigation, final StringBuilder builder) throws NavExceptionHuge {
+        final int depth = navigation.getCurrentDepth();
+        final int tokenCount = navigation.getTokenCount();
+        for (int i = navigation.getCurrentIndex() + 1; i < tokenCount; i++) {
+            final int type = navigation.getTokenType(i);
+            if (type == VTDNavHuge.TOKEN_STARTING_TAG || navigation.getTokenDepth(i) < depth) {
+                return;
+            } else if (type == VTDNavHuge.TOKEN_CHARACTER_DATA || type == VTDNavHuge.TOKEN_CDATA_VAL) {
+                builder.append(navigation.toString(i));
+            }
+        }
+    }
+
+    /**
+     * Appends an element and all its following siblings including their descendants, walking the elements in document order
+     * without recursion, see {@link VtdXmlParserContext}.
+     *
+     * @param navigation  the navigation positioned at the first element, it is positioned at the parent of the elements afterwards.
+     * @param formatted   whether to write line breaks and indentation.
+     * @param parentDepth the depth of the parent of the elements, where the walk ends.
+     * @param builder     the builder to append to.
+     * @throws NavExceptionHuge thrown when an error occurs navigating through the context.
+     */
+    private static void appendDescendants(final VTDNavHuge navigation, final boolean formatted, final int parentDepth, final StringBuilder builder) throws NavExceptionHuge {
+        boolean firstChild = true;
+        while (true) {
+            if (formatted && !firstChild) {
+                builder.append("    ");
+            }
+            appendStartTag(navigation, builder);
+            if (navigation.toElement(VTDNavHuge.FIRST_CHILD)) {
+                firstChild = true;
+                continue;
+            }
+            appendText(navigation, builder);
+            //close the element and all ancestors that have no further children, then continue with the next sibling
+            while (true) {
+                builder.append("</").append(navigation.toNormalizedString(navigation.getCurrentIndex())).append(">");
+                if (formatted) {
+                    builder.append("\n");
+                }
+                if (navigation.toElement(VTDNavHuge.NEXT_SIBLING)) {
+                    firstChild = false;
+                    break;
+                }
+                navigation.toElement(VTDNavHuge.PARENT);
+                if (navigation.getCurrentDepth() == parentDepth) {
+                    return;
+                }
+            }
+        }
+    }
+}
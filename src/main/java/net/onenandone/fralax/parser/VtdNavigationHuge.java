@@ -0,0 +1,55 @@
+package net.onenandone.fralax.parser;
+
+import com.ximpleware.extended.IByteBuffer;
+import com.ximpleware.extended.IIntBuffer;
+import com.ximpleware.extended.ILongBuffer;
+import com.ximpleware.extended.VTDGenHuge;
+import com.ximpleware.extended.VTDNavHuge;
+
+/**
+ * A {@link VTDNavHuge} that can be copied including its current element. {@link VTDNavHuge#cloneNav()} copies one entry too
+ * few of the navigation context and therefore loses the current element of the clone, and the extended API offers no
+ * {@code recoverNode} to reposition a fresh navigation. As a subclass this navigation has access to its complete state and
+ * copies all of it in {@link #copy()}. Navigations of this type are created by a {@link Generator}.
+ */
+final class VtdNavigationHuge extends VTDNavHuge {
+
+    private VtdNavigationHuge(final int rootIndex, final int encoding, final boolean namespaceAware, final int depth, final IByteBuffer xml,
+                              final ILongBuffer vtd, final ILongBuffer l1, final ILongBuffer l2, final IIntBuffer l3,
+                              final long documentOffset, final long documentLength) {
+        super(rootIndex, encoding, namespaceAware, depth, xml, vtd, l1, l2, l3, documentOffset, documentLength);
+    }
+
+    /**
+     * @return an independent navigation sharing the document and the VTD index, positioned at the same element.
+     */
+    VtdNavigationHuge copy() {
+        final VtdNavigationHuge copy = new VtdNavigationHuge(rootIndex, encoding, ns, nestingLevel - 1, XMLDoc, vtdBuffer,
+                l1Buffer, l2Buffer, l3Buffer, docOffset, docLen);
+        copy.atTerminal = atTerminal;
+        copy.LN = LN;
+        System.arraycopy(context, 0, copy.context, 0, Math.max(context[0] + 1, 1));
+        copy.l1index = l1index;
+        copy.l2index = l2index;
+        copy.l2upper = l2upper;
+        copy.l2lower = l2lower;
+        copy.l3index = l3index;
+        copy.l3upper = l3upper;
+        copy.l3lower = l3lower;
+        return copy;
+    }
+
+    /**
+     * Parses documents into navigations that can be copied.
+     */
+    static final class Generator extends VTDGenHuge {
+
+        @Override
+        public VtdNavigationHuge getNav() {
+            final VtdNavigationHuge navigation = new VtdNavigationHuge(rootIndex, encoding, ns, VTDDepth, xb, VTDBuffer, l1Buffer,
+                    l2Buffer, l3Buffer, docOffset, docLen);
+            clear();
+            return navigation;
+        }
+    }
+}
@@ -1,28 +1,222 @@
 package net.onenandone.fralax.parser;
 
 import com.ximpleware.ParseException;
+import com.ximpleware.VTDGen;
+import com.ximpleware.VTDNav;
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
+import net.onenandone.fralax.Fralax;
 import net.onenandone.fralax.FralaxException;
 import net.onenandone.fralax.XmlParser;
 
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 
 
 /**
  * A VtdXmlParser based on XPath and using <a href="http://vtd-xml.sourceforge.net/">VTD-XML</a> as the underlying parser.
+ * The document is read completely onto the heap: the standard VTD-XML API only tokenizes byte arrays, so a memory mapped
+ * file would have to be copied onto the heap all the same. For documents that should be memory mapped instead see
+ * {@link VtdHugeXmlParser}, which tokenizes the mapping itself and can be passed to {@link Fralax#parse(String, Class)} and
+ * {@link Fralax#watch(String, Class)} as well.
  */
 @NoArgsConstructor(access = AccessLevel.PUBLIC)
 public class VtdXmlParser implements XmlParser {
 
+    /** The largest document that fits into a single byte array and can therefore be handed to VTD. */
+    static final long MAX_DOCUMENT_SIZE = Integer.MAX_VALUE - 8;
+
+    /** The settings and statistics of the compiled queries of all documents parsed with this parser. */
+    static final XPathCache XPATH_CACHE = new XPathCache();
+
+    private static final int INITIAL_STREAM_BUFFER_SIZE = 64 * 1024;
+
     @Override
     public VtdXmlParserContext parse(final String file) {
         try {
-            return new VtdXmlParserContext(file);
+            final long start = System.nanoTime();
+            final VTDNav navigation = navigate(new File(file));
+            final VtdXmlParserContext context = new VtdXmlParserContext(navigation);
+            recordParse(start, navigation, navigation.getXML().length());
+            return context;
         } catch (final IOException e) {
             throw new FralaxException("Error in reading Input File " + file, e);
         } catch (final ParseException e) {
-            throw new FralaxException("Error in Parsing the Input File " + file + " with parser " + VtdXmlParser.class.toString(), e);
+            throw new FralaxException("Error in Parsing the Input File " + file + " with parser " + getClass().toString(), e);
+        }
+    }
+
+    /**
+     * Parses the file. Files of the default file system are read like {@link #parse(String)}, files of other file systems
+     * (e.g. zip file systems) are read through {@link Files#newInputStream(Path, java.nio.file.OpenOption...)}.
+     */
+    @Override
+    public VtdXmlParserContext parse(final Path file) {
+        if (file.getFileSystem() == FileSystems.getDefault()) {
+            return parse(file.toString());
+        }
+        try (final InputStream inputStream = Files.newInputStream(file)) {
+            return parse(inputStream);
+        } catch (final IOException e) {
+            throw new FralaxException("Error in reading Input File " + file, e);
+        }
+    }
+
+    @Override
+    public boolean supportsInMemoryDocuments() {
+        return true;
+    }
+
+    /** The array is tokenized in place, without copying it. */
+    @Override
+    public VtdXmlParserContext parse(final byte[] xml) {
+        return parse(xml, 0, xml.length);
+    }
+
+    /** Buffers backed by an array are tokenized in place, other buffers are copied once. */
+    @Override
+    public VtdXmlParserContext parse(final ByteBuffer xml) {
+        if (xml.hasArray()) {
+            return parse(xml.array(), xml.arrayOffset() + xml.position(), xml.remaining());
+        }
+        final byte[] xmlByteArray = new byte[xml.remaining()];
+        xml.duplicate().get(xmlByteArray);
+        return parse(xmlByteArray);
+    }
+
+    /** The stream is read directly into the array that is tokenized, without any intermediate buffers. */
+    @Override
+    public VtdXmlParserContext parse(final InputStream xml) {
+        try {
+            byte[] xmlByteArray = new byte[(int) Math.min(Math.max(xml.available(), INITIAL_STREAM_BUFFER_SIZE), MAX_DOCUMENT_SIZE)];
+            int length = 0;
+            int read;
+            while ((read = xml.read(xmlByteArray, length, xmlByteArray.length - length)) != -1) {
+                length += read;
+                if (length == xmlByteArray.length) {
+                    if (length >= MAX_DOCUMENT_SIZE) {
+                        // a document of exactly the maximum size is accepted, as it is for files
+                        if (xml.read() == -1) {
+                            break;
+                        }
+                        throw new IOException("Input Stream exceeds the maximum of " + MAX_DOCUMENT_SIZE + " bytes");
+                    }
+                    xmlByteArray = Arrays.copyOf(xmlByteArray, (int) Math.min((long) length << 1, MAX_DOCUMENT_SIZE));
+                }
+            }
+            return parse(xmlByteArray, 0, length);
+        } catch (final IOException e) {
+            throw new FralaxException("Error in reading Input Stream", e);
+        }
+    }
+
+    private VtdXmlParserContext parse(final byte[] xml, final int offset, final int length) {
+        try {
+            final long start = System.nanoTime();
+            final VTDNav navigation = tokenize(xml, offset, length).getNav();
+            final VtdXmlParserContext context = new VtdXmlParserContext(navigation, offset, length);
+            recordParse(start, navigation, length);
+            return context;
+        } catch (final ParseException e) {
+            throw new FralaxException("Error in Parsing the in-memory document with parser " + getClass().toString(), e);
+        }
+    }
+
+    /**
+     * Reports a finished parse to the {@link Fralax#getMetrics() metrics}.
+     *
+     * @param start      the {@link System#nanoTime()} the parse started at.
+     * @param navigation the navigation of the parsed document.
+     * @param bytes      the size of the document in bytes.
+     */
+    private void recordParse(final long start, final VTDNav navigation, final long bytes) {
+        Fralax.getMetrics().parsed(getClass(), System.nanoTime() - start, bytes, navigation.getTokenCount());
+    }
+
+    /**
+     * Returns the settings and statistics of the caches of compiled xpath queries of all documents parsed with this
+     * parser, e.g. to inspect their hit and miss statistics or to change their size.
+     *
+     * @return the xpath cache.
+     */
+    public static XPathCache getXPathCache() {
+        return XPATH_CACHE;
+    }
+
+    /**
+     * Parses the file and returns the navigation of the parsed document.
+     *
+     * @param file the file to parse.
+     * @return the navigation, positioned at the root element.
+     * @throws IOException    thrown when an error occurs while reading the file.
+     * @throws ParseException thrown when an error occurs during parsing of the xml file.
+     */
+    protected VTDNav navigate(final File file) throws IOException, ParseException {
+        return tokenize(read(file)).getNav();
+    }
+
+    /**
+     * Tokenizes a document with VTD.
+     *
+     * @param xml the document.
+     * @return the generator holding the tokenized document.
+     * @throws ParseException thrown when an error occurs during parsing of the document.
+     */
+    static VTDGen tokenize(final byte[] xml) throws ParseException {
+        return tokenize(xml, 0, xml.length);
+    }
+
+    /**
+     * Tokenizes a part of an array with VTD.
+     *
+     * @param xml    the array holding the document.
+     * @param offset the offset of the document within the array.
+     * @param length the length of the document.
+     * @return the generator holding the tokenized document.
+     * @throws ParseException thrown when an error occurs during parsing of the document.
+     */
+    static VTDGen tokenize(final byte[] xml, final int offset, final int length) throws ParseException {
+        final VTDGen vtdGen = new VTDGen();
+        vtdGen.setDoc(xml, offset, length);
+        vtdGen.parse(true); // set namespace awareness to true
+        return vtdGen;
+    }
+
+    /**
+     * Reads the complete contents of the file that is handed to VTD for parsing.
+     *
+     * @param file the file to read.
+     * @return the contents of the file.
+     * @throws IOException thrown when the file is too large or can not be read completely.
+     */
+    protected byte[] read(final File file) throws IOException {
+        final byte[] xmlByteArray = new byte[checkedSize(file, file.length())];
+        try (final DataInputStream inputStream = new DataInputStream(new FileInputStream(file))) {
+            inputStream.readFully(xmlByteArray);
+        }
+        return xmlByteArray;
+    }
+
+    /**
+     * Checks that a document of the passed size can be held in a single byte array.
+     *
+     * @param file the file the size belongs to.
+     * @param size the size of the file in bytes.
+     * @return the size as int.
+     * @throws IOException thrown when the file is too large for this parser.
+     */
+    static int checkedSize(final File file, final long size) throws IOException {
+        if (size > MAX_DOCUMENT_SIZE) {
+            throw new IOException("File " + file + " has " + size + " bytes, which exceeds the maximum of " + MAX_DOCUMENT_SIZE + " bytes");
         }
+        return (int) size;
     }
 }
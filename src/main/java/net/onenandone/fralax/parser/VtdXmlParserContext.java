@@ -1,159 +1,1022 @@
 package net.onenandone.fralax.parser;
 
 import com.ximpleware.*;
+import net.onenandone.fralax.CompiledXPath;
+import net.onenandone.fralax.Fralax;
 import net.onenandone.fralax.FralaxException;
 import net.onenandone.fralax.XmlContext;
 
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
- * Represents a valid XML Document parsed from a file. Can be further navigated using xpath queries.
+ * Represents a valid XML Document parsed by a {@link VtdXmlParser}. Can be further navigated using xpath queries.
+ * <p />
+ * A context only references the shared {@link VtdDocument} and the index of its element, a navigation is materialized
+ * whenever the context is queried. Contexts are immutable and can be queried by any number of threads concurrently.
  */
 class VtdXmlParserContext implements XmlContext {
 
-    private static final Pattern NAMESPACE_PATTERN = Pattern.compile("xmlns((:)([a-z]))?");
+    /** The result of a {@link #scan} of an xpath that is a function. */
+    private static final int FUNCTION_RESULT = -1;
 
-    private AutoPilot autopilot;
-    private VTDNav navigation;
-    private Map<String, String> registeredNamespaces = new HashMap<>();
-    private String xpath = "";
+    /** Queries that may be answered by an {@link AttributeIndex}: {@code //element[@attribute='value']}. */
+    private static final Pattern INDEXED_QUERY_PATTERN = Pattern.compile("//([\\w.:-]+)\\[@([\\w.:-]+)\\s*=\\s*(?:'([^']*)'|\"([^\"]*)\")\\]");
+
+    private final VtdDocument document;
+    private final int index;
+    private final boolean documentContext;
 
     /**
-     * Default constructor used to create a newly parsed XMLContext from a certain file.
+     * Default constructor used to create a newly parsed XMLContext from the navigation of a freshly parsed document.
      *
-     * @param file the file to parse.
-     * @throws IOException    thrown when an error occurs while opening the file.
-     * @throws ParseException thrown when an error occurs during parsing of the xml file.
+     * @param navigation the navigation of the parsed document, positioned at its root element.
      */
-    VtdXmlParserContext(final String file) throws IOException, ParseException {
-        final File fileToParse = new File(file);
-        try (final FileInputStream fileInputStream = new FileInputStream(fileToParse)) {
-            byte[] xmlByteArray = new byte[(int) fileToParse.length()];
-            if (fileInputStream.read(xmlByteArray) != xmlByteArray.length) {
-                throw new IOException("Error when reading the XML File");
-            }
-            final VTDGen vtdGen = new VTDGen();
-            vtdGen.setDoc(xmlByteArray);
-            vtdGen.parse(true); // set namespace awareness to true
-            navigation = vtdGen.getNav();
-            autopilot = new AutoPilot(navigation);
+    VtdXmlParserContext(final VTDNav navigation) {
+        this(navigation, 0, navigation.getXML().length());
+    }
 
-            analyzeNamespaces();
-        }
+    /**
+     * Constructor used to create a newly parsed XMLContext from the navigation of a document that has been parsed from a
+     * part of an array.
+     *
+     * @param navigation     the navigation of the parsed document, positioned at its root element.
+     * @param documentOffset the offset of the document within the array.
+     * @param documentLength the length of the document.
+     */
+    VtdXmlParserContext(final VTDNav navigation, final int documentOffset, final int documentLength) {
+        this(new VtdDocument(navigation, documentOffset, documentLength), navigation.getRootIndex(), true);
     }
 
     /**
-     * Analyzes namespaces of the specified XML file.
-     * <p />
-     * All namespaces will be registered by the prefix defined in the XML. The Xpath will therefore rely on the same namespace prefixes as of the XML.
+     * Constructor used to create a newly parsed XMLContext from an XPath Result.
+     *
+     * @param document the document the result is embedded in.
+     * @param index    the token index of the resulting element.
      */
-    private void analyzeNamespaces() {
-        final VTDNav namespaceNavigation = navigation.cloneNav();
-        boolean rootElementAnalyzed = false;
-        int index = namespaceNavigation.getRootIndex();
-        while (!rootElementAnalyzed) {
-            index++;
-            if (namespaceNavigation.getTokenType(index) == VTDNav.TOKEN_STARTING_TAG || namespaceNavigation.getTokenType(index) == VTDNav.TOKEN_ENDING_TAG) {
-                rootElementAnalyzed = true;
-            } else {
-                try {
-                    if (namespaceNavigation.getTokenType(index) == VTDNav.TOKEN_ATTR_NS) {
-                        final Matcher namespaceMatcher = NAMESPACE_PATTERN.matcher(namespaceNavigation.toString(index));
-                        if (namespaceMatcher.matches()) {
-                            final String prefix = namespaceMatcher.group(3);
-                            index++;
-                            if (prefix != null) {
-                                registeredNamespaces.put(prefix, namespaceNavigation.toString(index));
-                                addNamespacesToAutopilot(autopilot, registeredNamespaces);
-                            }
-                        }
-                    }
-                } catch (final NavException e) {
-                    throw new FralaxException("could not parse namespaces", e);
+    private VtdXmlParserContext(final VtdDocument document, final int index) {
+        this(document, index, false);
+    }
+
+    /**
+     * @param document        the document.
+     * @param index           the token index of the element of the context.
+     * @param documentContext whether the context is the parsed document itself, which evaluates queries as they are.
+     */
+    private VtdXmlParserContext(final VtdDocument document, final int index, final boolean documentContext) {
+        this.document = document;
+        this.index = index;
+        this.documentContext = documentContext;
+    }
+
+    /**
+     * Resolves the xpath as it is evaluated at the element of this context: queries of the context of the parsed document
+     * are evaluated as they are, selected contexts (also one of the root element) anchor them at their element, see
+     * {@link #anchor(String)}.
+     */
+    private String resolve(final String xpath) {
+        return documentContext ? xpath : anchor(xpath);
+    }
+
+    /**
+     * Anchors all absolute location paths of a query at the element the navigation is positioned at, so they are
+     * evaluated within the subtree of the element only: {@code /x} selects the children {@code x} of the element,
+     * {@code //x} its descendants {@code x} and {@code /} the element itself, also within unions ({@code /a | /b}) and
+     * function arguments ({@code count(//x)}). Relative paths are relative to the element anyway. Absolute paths within
+     * predicates ({@code x[//y]}) can not be anchored, as {@code .} refers to the node the predicate filters there.
+     *
+     * @param xpath the xpath to anchor.
+     * @return the anchored xpath.
+     * @throws FralaxException thrown when the xpath has an absolute path within a predicate.
+     */
+    static String anchor(final String xpath) {
+        final StringBuilder anchored = new StringBuilder(xpath.length() + 8);
+        int predicates = 0;
+        int i = 0;
+        while (i < xpath.length()) {
+            final char c = xpath.charAt(i);
+            if (c == '\'' || c == '"') {
+                final int end = xpath.indexOf(c, i + 1);
+                final int next = end == -1 ? xpath.length() : end + 1;
+                anchored.append(xpath, i, next);
+                i = next;
+                continue;
+            } else if (c == '[') {
+                predicates++;
+            } else if (c == ']') {
+                predicates--;
+            } else if (c == '/' && startsAbsolutePath(xpath, i)) {
+                if (predicates > 0) {
+                    throw new FralaxException("absolute path in a predicate of " + xpath + " can not be anchored at a selected element");
+                }
+                anchored.append('.');
+                if (xpath.startsWith("//", i)) {
+                    anchored.append("//");
+                    i += 2;
+                    continue;
+                } else if (!followedByStep(xpath, i + 1)) {
+                    i++; // "/" on its own selects the root, which is the element here
+                    continue;
                 }
             }
+            anchored.append(c);
+            i++;
         }
+        return anchored.toString();
     }
 
     /**
-     * Constructor used to create a newly parsed XMLContext from an XPath Result. takes a freshly created Autopilot
-     * and navigation in which the result is embedded.
+     * Tells a {@code /} starting an absolute path from one separating steps by the preceding token: absolute paths start
+     * an expression or follow an operator, a {@code (}, a {@code [} or a {@code ,}.
+     */
+    private static boolean startsAbsolutePath(final String xpath, final int slash) {
+        final int previous = previousToken(xpath, slash);
+        if (previous < 0) {
+            return true;
+        }
+        final char c = xpath.charAt(previous);
+        if ("([,|=<>!+".indexOf(c) != -1) {
+            return true;
+        } else if (c == '*') {
+            // a multiplication unless it is a name test like a/*
+            return endsOperand(xpath, previous);
+        } else if (c == '-') {
+            // a subtraction unless it ends a name like a-
+            return previous == 0 || !isNameCharacter(xpath.charAt(previous - 1));
+        } else if (Character.isLetter(c) && previous < slash - 1) {
+            int wordStart = previous;
+            while (wordStart > 0 && isNameCharacter(xpath.charAt(wordStart - 1))) {
+                wordStart--;
+            }
+            final String word = xpath.substring(wordStart, previous + 1);
+            return ("and".equals(word) || "or".equals(word) || "div".equals(word) || "mod".equals(word)) && endsOperand(xpath, wordStart);
+        }
+        return false;
+    }
+
+    /** @return whether the token before the index ends an operand, so an operator name or {@code *} following it is an operator. */
+    private static boolean endsOperand(final String xpath, final int index) {
+        final int previous = previousToken(xpath, index);
+        if (previous < 0) {
+            return false;
+        }
+        final char c = xpath.charAt(previous);
+        return isNameCharacter(c) || c == ')' || c == ']' || c == '\'' || c == '"' || c == '*';
+    }
+
+    /** @return whether a step follows the {@code /} ending before the index, rather than the end of the path. */
+    private static boolean followedByStep(final String xpath, final int index) {
+        int next = index;
+        while (next < xpath.length() && Character.isWhitespace(xpath.charAt(next))) {
+            next++;
+        }
+        if (next == xpath.length()) {
+            return false;
+        }
+        final char c = xpath.charAt(next);
+        return Character.isLetter(c) || c == '_' || c == '*' || c == '@' || c == '.';
+    }
+
+    /** @return the index of the last character before the index that is no whitespace, {@code -1} if there is none. */
+    private static int previousToken(final String xpath, final int index) {
+        int previous = index - 1;
+        while (previous >= 0 && Character.isWhitespace(xpath.charAt(previous))) {
+            previous--;
+        }
+        return previous;
+    }
+
+    private static boolean isNameCharacter(final char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.';
+    }
+
+    /**
+     * Creates the key of an xpath given as string, which allocates the key and, for selected contexts, the anchored xpath
+     * on every call. Queries of compiled xpaths reuse the keys pinned by their handle instead, see {@link #key(CompiledXPath)}.
      *
-     * @param autopilot            autopilot for the specified navigation.
-     * @param navigation           navigation to navigate through the xpath result.
-     * @param registeredNamespaces namespaces to register for the new xml context.
+     * @return the key of the xpath as evaluated at the element of this context.
      */
-    private VtdXmlParserContext(final String xpath, final AutoPilot autopilot, final VTDNav navigation, final Map<String, String> registeredNamespaces) {
-        this.autopilot = autopilot;
-        this.navigation = navigation;
-        this.registeredNamespaces = registeredNamespaces;
-        this.xpath = xpath;
+    private XPathCache.Key key(final String xpath) {
+        return new XPathCache.Key(resolve(xpath), document.getNamespaces());
     }
 
-    /** Adds all registered Namespaces to the Autopilot for evaluation. */
-    private static void addNamespacesToAutopilot(final AutoPilot autopilot, final Map<String, String> registeredNamespaces) {
-        for (Map.Entry<String, String> entry : registeredNamespaces.entrySet()) {
-            autopilot.declareXPathNameSpace(entry.getKey(), entry.getValue());
+    /** @return the key of the compiled xpath as evaluated at the element of this context, pinned by the handle if possible. */
+    private XPathCache.Key key(final CompiledXPath xpath) {
+        if (xpath instanceof VtdCompiledXPath) {
+            final XPathCache.Key key = ((VtdCompiledXPath) xpath).key(document.getNamespaces(), documentContext);
+            if (key != null) {
+                return key;
+            }
         }
+        return key(xpath.getXPath());
+    }
+
+    /** The returned handle keeps its compiled queries for as long as it is referenced. */
+    @Override
+    public CompiledXPath compile(final String xpath) throws FralaxException {
+        final VtdCompiledXPath compiledXPath = new VtdCompiledXPath(xpath, document.getNamespaces());
+        final XPathCache.Key key = key(compiledXPath);
+        try {
+            document.getQueries().release(key, document.getQueries().acquire(key));
+        } catch (XPathParseException e) {
+            throw new FralaxException("Xpath can not be selected from Parser", e);
+        }
+        return compiledXPath;
     }
 
     @Override
     public Optional<XmlContext> select(final String xpath) throws FralaxException {
-        final List<XmlContext> result = selectAll(xpath);
-        if (result.size() > 1) {
-            throw new FralaxException("Tried to select one Element as result, but result was " + result.size() + " elements large.");
-        } else if (result.size() == 1) {
-            return Optional.of(result.get(0));
-        } else {
-            return Optional.empty();
+        return select(xpath, key(xpath));
+    }
+
+    @Override
+    public Optional<XmlContext> select(final CompiledXPath xpath) throws FralaxException {
+        return select(xpath.getXPath(), key(xpath));
+    }
+
+    /** Stops evaluating at the second result, unless the result is taken from the result cache or an attribute index. */
+    private Optional<XmlContext> select(final String xpath, final XPathCache.Key key) {
+        if (document.getResultCache() != null || indexed(xpath)) {
+            final List<XmlContext> result = selectAll(xpath, key);
+            if (result.size() > 1) {
+                throw new FralaxException("Tried to select one Element as result, but result was " + result.size() + " elements large.");
+            }
+            return result.isEmpty() ? Optional.empty() : Optional.of(result.get(0));
         }
+        final long start = System.nanoTime();
+        final Selection selection = new Selection(key, document.borrow(index));
+        final XmlContext result;
+        final boolean ambiguous;
+        try {
+            result = selection.hasNext() ? selection.next() : null;
+            ambiguous = result != null && selection.hasNext();
+        } finally {
+            selection.close();
+        }
+        Fralax.getMetrics().queried(xpath, System.nanoTime() - start, ambiguous ? 2 : result == null ? 0 : 1);
+        if (ambiguous) {
+            throw new FralaxException("Tried to select one Element as result, but result was more than one element large.");
+        }
+        return Optional.ofNullable(result);
     }
 
+    /** Counts the result tokens without creating contexts, a function counts as one result. */
     @Override
-    public List<XmlContext> selectAll(String xpath) throws FralaxException {
+    public int count(final String xpath) throws FralaxException {
+        final long start = System.nanoTime();
+        final int[] indexedElements = indexedElements(xpath);
+        if (indexedElements != null) {
+            Fralax.getMetrics().queried(xpath, System.nanoTime() - start, indexedElements.length);
+            return indexedElements.length;
+        }
+        final VTDNav navigation = document.borrow(index);
+        final int count;
+        try {
+            count = scan(navigation, xpath, false, Integer.MAX_VALUE, (position, token) -> {
+            });
+        } finally {
+            document.release(navigation);
+        }
+        return count == FUNCTION_RESULT ? 1 : count;
+    }
+
+    /** Stops evaluating at the first result token without creating a context, a function counts as one result. */
+    @Override
+    public boolean exists(final String xpath) throws FralaxException {
+        final long start = System.nanoTime();
+        final int[] indexedElements = indexedElements(xpath);
+        if (indexedElements != null) {
+            Fralax.getMetrics().queried(xpath, System.nanoTime() - start, indexedElements.length);
+            return indexedElements.length > 0;
+        }
+        final VTDNav navigation = document.borrow(index);
+        try {
+            return scan(navigation, xpath, false, 1, (position, token) -> {
+            }) != 0;
+        } finally {
+            document.release(navigation);
+        }
+    }
+
+    @Override
+    public List<XmlContext> selectAll(final String xpath) throws FralaxException {
+        return selectAll(xpath, key(xpath));
+    }
+
+    @Override
+    public List<XmlContext> selectAll(final CompiledXPath xpath) throws FralaxException {
+        return selectAll(xpath.getXPath(), key(xpath));
+    }
+
+    private List<XmlContext> selectAll(final String xpath, final XPathCache.Key key) {
+        final long start = System.nanoTime();
+        final List<XmlContext> result = query(xpath, key);
+        Fralax.getMetrics().queried(xpath, System.nanoTime() - start, result.size());
+        return result;
+    }
+
+    /** Takes the result from the result cache if it is enabled, or evaluates the xpath and caches its result. */
+    private List<XmlContext> query(final String xpath, final XPathCache.Key key) {
+        final ResultCache resultCache = document.getResultCache();
+        if (resultCache == null) {
+            return evaluate(xpath, key);
+        }
+        final String resolvedXpath = resolve(xpath);
+        List<XmlContext> xmlElements = resultCache.get(index, resolvedXpath);
+        if (xmlElements == null) {
+            xmlElements = Collections.unmodifiableList(evaluate(xpath, key));
+            resultCache.put(index, resolvedXpath, xmlElements);
+        }
+        return new ArrayList<>(xmlElements);
+    }
+
+    /** Evaluates the xpath or takes its result from an attribute index if one answers it. */
+    private List<XmlContext> evaluate(final String xpath, final XPathCache.Key key) {
+        final int[] indexedElements = indexedElements(xpath);
+        if (indexedElements != null) {
+            return contexts(indexedElements);
+        }
         final List<XmlContext> xmlElements = new ArrayList<>();
+        final Selection selection = new Selection(key, document.borrow(index));
+        while (selection.hasNext()) {
+            xmlElements.add(selection.next());
+        }
+        return xmlElements;
+    }
+
+    /** Evaluates the xpath lazily, each result is created when the iteration reaches it, unless the result is cached. */
+    @Override
+    public Iterator<XmlContext> iterator(final String xpath) throws FralaxException {
+        final ResultCache resultCache = document.getResultCache();
+        final List<XmlContext> cached = resultCache == null ? null : resultCache.get(index, resolve(xpath));
+        if (cached != null) {
+            return cached.iterator();
+        }
+        return indexed(xpath) ? selectAll(xpath).iterator() : new Selection(key(xpath), document.navigate(index));
+    }
+
+    /** Enables the cache for all contexts of the document this context has been selected from. */
+    @Override
+    public XmlContext enableResultCache(final int maximumSize) {
+        document.setResultCacheSize(maximumSize);
+        return this;
+    }
+
+    /** Counts the memory retained by the document this context has been selected from, see {@link VtdDocument#getRetainedBytes()}. */
+    @Override
+    public long getRetainedBytes() {
+        return document.getRetainedBytes();
+    }
+
+    /** Indexes the elements of the document this context has been selected from. */
+    @Override
+    public XmlContext indexAttribute(final String element, final String attribute) throws FralaxException {
+        document.indexAttribute(element, attribute);
+        return this;
+    }
+
+    @Override
+    public List<XmlContext> lookup(final String element, final String attribute, final String value) throws FralaxException {
+        final AttributeIndex attributeIndex = document.getAttributeIndex(element, attribute);
+        if (attributeIndex == null) {
+            return XmlContext.super.lookup(element, attribute, value);
+        }
+        final long start = System.nanoTime();
+        final List<XmlContext> result = contexts(withinSubtree(attributeIndex.get(value)));
+        Fralax.getMetrics().queried("//" + element + "[@" + attribute + "='" + value + "']", System.nanoTime() - start, result.size());
+        return result;
+    }
+
+    /** @return whether the xpath is a query of the form {@code //element[@attribute='value']} with an {@link AttributeIndex}. */
+    private boolean indexed(final String xpath) {
+        if (!document.hasAttributeIndexes()) {
+            return false;
+        }
+        final Matcher matcher = INDEXED_QUERY_PATTERN.matcher(xpath);
+        return matcher.matches() && document.getAttributeIndex(matcher.group(1), matcher.group(2)) != null;
+    }
+
+    /**
+     * Answers a query of the form {@code //element[@attribute='value']} by an {@link AttributeIndex}.
+     *
+     * @return the token indexes of the selected elements or {@code null} if the query can not be answered by an index.
+     */
+    private int[] indexedElements(final String xpath) {
+        if (!document.hasAttributeIndexes()) {
+            return null;
+        }
+        final Matcher matcher = INDEXED_QUERY_PATTERN.matcher(xpath);
+        if (!matcher.matches()) {
+            return null;
+        }
+        final AttributeIndex attributeIndex = document.getAttributeIndex(matcher.group(1), matcher.group(2));
+        if (attributeIndex == null) {
+            return null;
+        }
+        return withinSubtree(attributeIndex.get(matcher.group(3) != null ? matcher.group(3) : matcher.group(4)));
+    }
 
-        final VTDNav selectionNavigation = navigation.cloneNav();
-        final AutoPilot selectionAutoPilot = new AutoPilot(selectionNavigation);
-        addNamespacesToAutopilot(selectionAutoPilot, registeredNamespaces);
+    /**
+     * Restricts elements of the document to the descendants of the element of this context, as {@code //} is anchored
+     * at it. The tokens of the descendants follow the token of the element up to the next element outside of its subtree.
+     */
+    private int[] withinSubtree(final int[] elements) {
+        if (documentContext || elements.length == 0) {
+            return elements;
+        }
+        final int end = subtreeEnd();
+        return Arrays.stream(elements).filter(element -> element > index && element < end).toArray();
+    }
 
+    /** @return the token index of the first element following the subtree of the element of this context. */
+    private int subtreeEnd() {
+        final VTDNav navigation = document.borrow(index);
         try {
-            if (!this.xpath.equals("") && (xpath.startsWith("/") || xpath.startsWith("//"))) {
-                xpath = this.xpath + xpath;
+            do {
+                if (navigation.toElement(VTDNav.NEXT_SIBLING)) {
+                    return navigation.getCurrentIndex();
+                }
+            } while (navigation.toElement(VTDNav.PARENT));
+        } catch (final NavException e) {
+            throw new FralaxException("failed to locate element in document", e);
+        } finally {
+            document.release(navigation);
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    private List<XmlContext> contexts(final int[] elements) {
+        final List<XmlContext> contexts = new ArrayList<>(elements.length);
+        for (final int element : elements) {
+            contexts.add(new VtdXmlParserContext(document, element));
+        }
+        return contexts;
+    }
+
+    /** Parses the value straight from its token, the query allocates its key though, see {@link #key(String)}. */
+    @Override
+    public OptionalInt selectInt(final String xpath) throws FralaxException {
+        try (final ValueSelection selection = new ValueSelection(xpath)) {
+            if (selection.token == ValueSelection.NO_VALUE) {
+                return OptionalInt.empty();
+            } else if (selection.token == ValueSelection.FUNCTION_VALUE) {
+                final double value = selection.autoPilot.evalXPathToNumber();
+                if (value != (int) value) {
+                    throw new NumberFormatException("not an int: " + value);
+                }
+                return OptionalInt.of((int) value);
             }
-            selectionAutoPilot.selectXPath(xpath);
+            return OptionalInt.of(selection.navigation.parseInt(selection.token));
+        } catch (final NavException | NumberFormatException e) {
+            throw new FralaxException("value of " + xpath + " is not an int", e);
+        }
+    }
 
-            int xpathResultIndex = selectionAutoPilot.evalXPath();
-            while (xpathResultIndex != -1) {
-                //Take into account searches for Attribute/Value of an Element
-                if (selectionNavigation.getTokenType(xpathResultIndex) == VTDNav.TOKEN_CHARACTER_DATA) {
-                    xmlElements.add(new ValueContext(selectionNavigation.toNormalizedString(xpathResultIndex)));
-                } else if (selectionNavigation.getTokenType(xpathResultIndex) == VTDNav.TOKEN_ATTR_NAME) {
-                    xmlElements.add(new ValueContext(selectionNavigation.toNormalizedString(xpathResultIndex + 1)));
-                } else {
-                    final VTDNav clonedNavigation = selectionNavigation.cloneNav();
-                    final AutoPilot clonedAutoPilot = new AutoPilot(clonedNavigation);
-                    xmlElements.add(new VtdXmlParserContext(xpath, clonedAutoPilot, clonedNavigation, registeredNamespaces));
+    /** Parses the value straight from its token, the query allocates its key though, see {@link #key(String)}. */
+    @Override
+    public OptionalLong selectLong(final String xpath) throws FralaxException {
+        try (final ValueSelection selection = new ValueSelection(xpath)) {
+            if (selection.token == ValueSelection.NO_VALUE) {
+                return OptionalLong.empty();
+            } else if (selection.token == ValueSelection.FUNCTION_VALUE) {
+                final double value = selection.autoPilot.evalXPathToNumber();
+                if (value != (long) value) {
+                    throw new NumberFormatException("not a long: " + value);
                 }
-                xpathResultIndex = selectionAutoPilot.evalXPath();
+                return OptionalLong.of((long) value);
+            }
+            return OptionalLong.of(selection.navigation.parseLong(selection.token));
+        } catch (final NavException | NumberFormatException e) {
+            throw new FralaxException("value of " + xpath + " is not a long", e);
+        }
+    }
+
+    /** Parses the value straight from its token, the query allocates its key though, see {@link #key(String)}. */
+    @Override
+    public OptionalDouble selectDouble(final String xpath) throws FralaxException {
+        try (final ValueSelection selection = new ValueSelection(xpath)) {
+            if (selection.token == ValueSelection.NO_VALUE) {
+                return OptionalDouble.empty();
+            } else if (selection.token == ValueSelection.FUNCTION_VALUE) {
+                return OptionalDouble.of(selection.autoPilot.evalXPathToNumber());
             }
-            return xmlElements;
+            return OptionalDouble.of(selection.navigation.parseDouble(selection.token));
+        } catch (final NavException | NumberFormatException e) {
+            throw new FralaxException("value of " + xpath + " is not a double", e);
+        }
+    }
+
+    /** Compares the value straight with its token, the query allocates its key though, see {@link #key(String)}. */
+    @Override
+    public Optional<Boolean> selectBoolean(final String xpath) throws FralaxException {
+        try (final ValueSelection selection = new ValueSelection(xpath)) {
+            if (selection.token == ValueSelection.NO_VALUE) {
+                return Optional.empty();
+            } else if (selection.token == ValueSelection.FUNCTION_VALUE) {
+                return Optional.of(parseBoolean(selection.autoPilot.evalXPathToString(), xpath));
+            } else if (selection.navigation.matchTokenString(selection.token, "true")) {
+                return Optional.of(Boolean.TRUE);
+            } else if (selection.navigation.matchTokenString(selection.token, "false")) {
+                return Optional.of(Boolean.FALSE);
+            }
+            return Optional.of(parseBoolean(selection.navigation.toNormalizedString(selection.token), xpath));
+        } catch (final NavException e) {
+            throw new FralaxException("value of " + xpath + " is not a boolean", e);
+        }
+    }
+
+    private static Boolean parseBoolean(final String value, final String xpath) {
+        switch (value.trim()) {
+            case "true":
+            case "1":
+                return Boolean.TRUE;
+            case "false":
+            case "0":
+                return Boolean.FALSE;
+            default:
+                throw new FralaxException("value of " + xpath + " is not a boolean");
+        }
+    }
+
+    /** Reads the values in one pass straight from the document, only elements are transformed by a context of their own. */
+    @Override
+    public String[] selectStrings(final String xpath) throws FralaxException {
+        final VTDNav navigation = document.navigate(index);
+        final TokenList tokens = new TokenList();
+        final int count = scan(navigation, xpath, false, Integer.MAX_VALUE, tokens);
+        if (count == FUNCTION_RESULT) {
+            return XmlContext.super.selectStrings(xpath);
+        }
+        final String[] column = new String[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                column[i] = stringValue(navigation, tokens.tokens[i]);
+            }
+        } catch (final NavException e) {
+            throw new FralaxException("Error when navigating through XPathResults", e);
+        }
+        return column;
+    }
+
+    /** Parses the values in one pass straight from their tokens. */
+    @Override
+    public int[] selectInts(final String xpath) throws FralaxException {
+        final VTDNav navigation = document.navigate(index);
+        final TokenList tokens = new TokenList();
+        final int count = scan(navigation, xpath, true, Integer.MAX_VALUE, tokens);
+        if (count == FUNCTION_RESULT) {
+            return XmlContext.super.selectInts(xpath);
+        }
+        final int[] column = new int[count];
+        parseInts(navigation, xpath, tokens.tokens, count, column, 0);
+        return column;
+    }
+
+    /** Parses the values in one pass straight from their tokens, the buffer is only written once all values fit. */
+    @Override
+    public int selectInts(final String xpath, final int[] buffer, final int offset) throws FralaxException {
+        final VTDNav navigation = document.navigate(index);
+        final TokenList tokens = new TokenList();
+        final int count = scan(navigation, xpath, true, Integer.MAX_VALUE, tokens.limitedTo(xpath, buffer.length - offset));
+        if (count == FUNCTION_RESULT) {
+            return XmlContext.super.selectInts(xpath, buffer, offset);
+        }
+        parseInts(navigation, xpath, tokens.tokens, count, buffer, offset);
+        return count;
+    }
+
+    private static void parseInts(final VTDNav navigation, final String xpath, final int[] tokens, final int count, final int[] column, final int offset) {
+        try {
+            for (int i = 0; i < count; i++) {
+                column[offset + i] = navigation.parseInt(tokens[i]);
+            }
+        } catch (final NavException | NumberFormatException e) {
+            throw new FralaxException("value of " + xpath + " is not an int", e);
+        }
+    }
+
+    /** Parses the values in one pass straight from their tokens. */
+    @Override
+    public long[] selectLongs(final String xpath) throws FralaxException {
+        final VTDNav navigation = document.navigate(index);
+        final TokenList tokens = new TokenList();
+        final int count = scan(navigation, xpath, true, Integer.MAX_VALUE, tokens);
+        if (count == FUNCTION_RESULT) {
+            return XmlContext.super.selectLongs(xpath);
+        }
+        final long[] column = new long[count];
+        parseLongs(navigation, xpath, tokens.tokens, count, column, 0);
+        return column;
+    }
+
+    /** Parses the values in one pass straight from their tokens, the buffer is only written once all values fit. */
+    @Override
+    public int selectLongs(final String xpath, final long[] buffer, final int offset) throws FralaxException {
+        final VTDNav navigation = document.navigate(index);
+        final TokenList tokens = new TokenList();
+        final int count = scan(navigation, xpath, true, Integer.MAX_VALUE, tokens.limitedTo(xpath, buffer.length - offset));
+        if (count == FUNCTION_RESULT) {
+            return XmlContext.super.selectLongs(xpath, buffer, offset);
+        }
+        parseLongs(navigation, xpath, tokens.tokens, count, buffer, offset);
+        return count;
+    }
+
+    private static void parseLongs(final VTDNav navigation, final String xpath, final int[] tokens, final int count, final long[] column, final int offset) {
+        try {
+            for (int i = 0; i < count; i++) {
+                column[offset + i] = navigation.parseLong(tokens[i]);
+            }
+        } catch (final NavException | NumberFormatException e) {
+            throw new FralaxException("value of " + xpath + " is not a long", e);
+        }
+    }
+
+    /** Parses the values in one pass straight from their tokens. */
+    @Override
+    public double[] selectDoubles(final String xpath) throws FralaxException {
+        final VTDNav navigation = document.navigate(index);
+        final TokenList tokens = new TokenList();
+        final int count = scan(navigation, xpath, true, Integer.MAX_VALUE, tokens);
+        if (count == FUNCTION_RESULT) {
+            return XmlContext.super.selectDoubles(xpath);
+        }
+        final double[] column = new double[count];
+        parseDoubles(navigation, xpath, tokens.tokens, count, column, 0);
+        return column;
+    }
+
+    /** Parses the values in one pass straight from their tokens, the buffer is only written once all values fit. */
+    @Override
+    public int selectDoubles(final String xpath, final double[] buffer, final int offset) throws FralaxException {
+        final VTDNav navigation = document.navigate(index);
+        final TokenList tokens = new TokenList();
+        final int count = scan(navigation, xpath, true, Integer.MAX_VALUE, tokens.limitedTo(xpath, buffer.length - offset));
+        if (count == FUNCTION_RESULT) {
+            return XmlContext.super.selectDoubles(xpath, buffer, offset);
+        }
+        parseDoubles(navigation, xpath, tokens.tokens, count, buffer, offset);
+        return count;
+    }
+
+    private static void parseDoubles(final VTDNav navigation, final String xpath, final int[] tokens, final int count, final double[] column, final int offset) {
+        try {
+            for (int i = 0; i < count; i++) {
+                column[offset + i] = navigation.parseDouble(tokens[i]);
+            }
+        } catch (final NavException | NumberFormatException e) {
+            throw new FralaxException("value of " + xpath + " is not a double", e);
+        }
+    }
+
+    /**
+     * Extracts all records in one pass on a single navigation: the fields are evaluated at each record between
+     * {@link VTDNav#push()} and {@link VTDNav#pop()}, so the evaluation of the records is not disturbed.
+     */
+    @Override
+    public String[][] selectColumns(final String rowXpath, final String... fieldXpaths) throws FralaxException {
+        final long start = System.nanoTime();
+        final XPathCache.Key rowKey = key(rowXpath);
+        final XPathCache.Key[] fieldKeys = new XPathCache.Key[fieldXpaths.length];
+        for (int field = 0; field < fieldXpaths.length; field++) {
+            fieldKeys[field] = new XPathCache.Key(anchor(fieldXpaths[field]), document.getNamespaces());
+        }
+        final VTDNav navigation = document.navigate(index);
+        final AutoPilot[] fieldAutoPilots = new AutoPilot[fieldXpaths.length];
+        AutoPilot rowAutoPilot = null;
+        int rows = 0;
+        String[][] columns = new String[fieldXpaths.length][16];
+        try {
+            rowAutoPilot = document.getQueries().acquire(rowKey);
+            rowAutoPilot.bind(navigation);
+            for (int field = 0; field < fieldXpaths.length; field++) {
+                fieldAutoPilots[field] = document.getQueries().acquire(fieldKeys[field]);
+                fieldAutoPilots[field].bind(navigation);
+            }
+            while (rowAutoPilot.evalXPath() != -1) {
+                if (rows == columns[0].length) {
+                    for (int field = 0; field < fieldXpaths.length; field++) {
+                        columns[field] = Arrays.copyOf(columns[field], rows << 1);
+                    }
+                }
+                for (int field = 0; field < fieldXpaths.length; field++) {
+                    navigation.push();
+                    columns[field][rows] = field(navigation, fieldAutoPilots[field]);
+                    fieldAutoPilots[field].resetXPath();
+                    navigation.pop();
+                }
+                rows++;
+            }
+        } catch (XPathParseException e) {
+            throw new FralaxException("Xpath can not be selected from Parser", e);
         } catch (XPathEvalException | NavException e) {
+            if (e.getMessage().contains("binary")) {
+                throw new FralaxException("Binary Expressions are not supported", e);
+            }
+            throw new FralaxException("Error when navigating through XPathResults", e);
+        } finally {
+            if (rowAutoPilot != null) {
+                rowAutoPilot.resetXPath();
+                document.getQueries().release(rowKey, rowAutoPilot);
+            }
+            for (int field = 0; field < fieldXpaths.length; field++) {
+                if (fieldAutoPilots[field] != null) {
+                    fieldAutoPilots[field].resetXPath();
+                    document.getQueries().release(fieldKeys[field], fieldAutoPilots[field]);
+                }
+            }
+        }
+        for (int field = 0; field < fieldXpaths.length; field++) {
+            columns[field] = Arrays.copyOf(columns[field], rows);
+        }
+        Fralax.getMetrics().queried(rowXpath, System.nanoTime() - start, rows);
+        return columns;
+    }
+
+    /** Evaluates a field at the current record and returns its first result as string, {@code null} if there is none. */
+    private String field(final VTDNav navigation, final AutoPilot fieldAutoPilot) throws NavException {
+        try {
+            final int token = nextResult(fieldAutoPilot, navigation);
+            return token == -1 ? null : stringValue(navigation, valueToken(navigation, token));
+        } catch (XPathEvalException e) {
             if (" Function Expr can't eval to node set ".equals(e.getMessage())) {
-                return Collections.singletonList(new ValueContext(selectionAutoPilot.evalXPathToString()));
+                return fieldAutoPilot.evalXPathToString();
+            }
+            throw new FralaxException("Error when navigating through XPathResults", e);
+        }
+    }
+
+    /**
+     * Evaluates an xpath in one pass and passes the token of each value to the sink: the value token of attributes, the
+     * text token of text nodes and the element token of elements, unless {@code valuesOnly} is set, which rejects elements.
+     *
+     * @return the number of values passed to the sink, at most the limit, or {@link #FUNCTION_RESULT} if the xpath is a
+     * function that does not select tokens.
+     */
+    private int scan(final VTDNav navigation, final String xpath, final boolean valuesOnly, final int limit, final TokenSink sink) {
+        final long start = System.nanoTime();
+        final XPathCache.Key key = key(xpath);
+        final AutoPilot autoPilot;
+        try {
+            autoPilot = document.getQueries().acquire(key);
+        } catch (XPathParseException e) {
+            throw new FralaxException("Xpath can not be selected from Parser", e);
+        }
+        autoPilot.bind(navigation);
+        int count = 0;
+        try {
+            int token;
+            while (count < limit && (token = nextResult(autoPilot, navigation)) != -1) {
+                if (valuesOnly && navigation.getTokenType(token) == VTDNav.TOKEN_STARTING_TAG) {
+                    throw new FralaxException(elementSelected(xpath));
+                }
+                sink.accept(count++, valueToken(navigation, token));
+            }
+            Fralax.getMetrics().queried(xpath, System.nanoTime() - start, count);
+            return count;
+        } catch (XPathEvalException | NavException e) {
+            if (" Function Expr can't eval to node set ".equals(e.getMessage())) {
+                return FUNCTION_RESULT;
             } else if (e.getMessage().contains("binary")) {
                 throw new FralaxException("Binary Expressions are not supported", e);
-            } else {
+            }
+            throw new FralaxException("Error when navigating through XPathResults", e);
+        } finally {
+            autoPilot.resetXPath();
+            document.getQueries().release(key, autoPilot);
+        }
+    }
+
+    /**
+     * Evaluates the next result of a query. VTD reports the content of an empty element like {@code <a></a>} as a text
+     * token of length 0, which is no text node in xpath, such tokens are skipped.
+     *
+     * @return the token of the next result or -1 if there is none.
+     */
+    private static int nextResult(final AutoPilot autoPilot, final VTDNav navigation) throws XPathEvalException, NavException {
+        int token;
+        do {
+            token = autoPilot.evalXPath();
+        } while (token != -1 && navigation.getTokenType(token) == VTDNav.TOKEN_CHARACTER_DATA && navigation.getTokenLength(token) == 0);
+        return token;
+    }
+
+    /** Returns the token holding the value of a result, the navigation has to be positioned at the result. */
+    private static int valueToken(final VTDNav navigation, final int token) throws NavException {
+        return navigation.getTokenType(token) == VTDNav.TOKEN_ATTR_NAME ? token + 1 : token;
+    }
+
+    private static String bufferTooSmall(final String xpath, final int capacity) {
+        return "buffer holds " + capacity + " values, but " + xpath + " selects more";
+    }
+
+    private static String elementSelected(final String xpath) {
+        return "value of " + xpath + " is an element, select its text() or an attribute instead";
+    }
+
+    /** Transforms a value token as {@link #selectAll(String)} would: values are normalized, elements transformed by their context. */
+    private String stringValue(final VTDNav navigation, final int token) throws NavException {
+        if (navigation.getTokenType(token) == VTDNav.TOKEN_STARTING_TAG) {
+            return new VtdXmlParserContext(document, token).asString();
+        }
+        return navigation.toNormalizedString(token);
+    }
+
+    /** Receives the tokens of a {@link #scan}. */
+    @FunctionalInterface
+    private interface TokenSink {
+        void accept(int position, int token);
+    }
+
+    /** A {@link TokenSink} collecting the tokens of a scan of unknown size. */
+    private static final class TokenList implements TokenSink {
+
+        private int[] tokens = new int[16];
+
+        @Override
+        public void accept(final int position, final int token) {
+            if (position == tokens.length) {
+                tokens = Arrays.copyOf(tokens, position << 1);
+            }
+            tokens[position] = token;
+        }
+
+        /** @return a sink collecting into this list that fails as soon as more tokens arrive than fit into the capacity of a buffer. */
+        private TokenSink limitedTo(final String xpath, final int capacity) {
+            return (position, token) -> {
+                if (position == capacity) {
+                    throw new FralaxException(bufferTooSmall(xpath, capacity));
+                }
+                accept(position, token);
+            };
+        }
+    }
+
+    /**
+     * An evaluation of an xpath that selects at most one value, which is located as token of the document instead of
+     * creating a context. Evaluates on a borrowed navigation, as no result outlives the evaluation.
+     */
+    private final class ValueSelection implements AutoCloseable {
+
+        /** The {@link #token} if nothing has been selected. */
+        private static final int NO_VALUE = -1;
+        /** The {@link #token} if the xpath is a function, which has to be evaluated by the {@link #autoPilot}. */
+        private static final int FUNCTION_VALUE = -2;
+
+        private final String xpath;
+        private final long start = System.nanoTime();
+        private final XPathCache.Key key;
+        private final VTDNav navigation;
+        private final AutoPilot autoPilot;
+        private final int token;
+
+        private ValueSelection(final String xpath) {
+            this.xpath = xpath;
+            this.key = key(xpath);
+            this.navigation = document.borrow(index);
+            try {
+                this.autoPilot = document.getQueries().acquire(key);
+            } catch (XPathParseException e) {
+                throw new FralaxException("Xpath can not be selected from Parser", e);
+            }
+            autoPilot.bind(navigation);
+            try {
+                this.token = evaluate();
+            } catch (final RuntimeException e) {
+                release();
+                throw e;
+            }
+        }
+
+        private int evaluate() {
+            try {
+                final int xpathResultIndex = nextResult(autoPilot, navigation);
+                if (xpathResultIndex == -1) {
+                    return NO_VALUE;
+                }
+                final int tokenType = navigation.getTokenType(xpathResultIndex);
+                if (tokenType == VTDNav.TOKEN_STARTING_TAG) {
+                    throw new FralaxException(elementSelected(xpath));
+                }
+                final int valueIndex = tokenType == VTDNav.TOKEN_ATTR_NAME ? xpathResultIndex + 1 : xpathResultIndex;
+                if (nextResult(autoPilot, navigation) != -1) {
+                    throw new FralaxException("Tried to select one value as result, but result was more than one element large.");
+                }
+                return valueIndex;
+            } catch (XPathEvalException | NavException e) {
+                if (" Function Expr can't eval to node set ".equals(e.getMessage())) {
+                    return FUNCTION_VALUE;
+                } else if (e.getMessage().contains("binary")) {
+                    throw new FralaxException("Binary Expressions are not supported", e);
+                }
                 throw new FralaxException("Error when navigating through XPathResults", e);
             }
-        } catch (XPathParseException e) {
-            throw new FralaxException("Xpath can not be selected from Parser", e);
+        }
+
+        private void release() {
+            autoPilot.resetXPath();
+            document.getQueries().release(key, autoPilot);
+            document.release(navigation);
+        }
+
+        @Override
+        public void close() {
+            release();
+            Fralax.getMetrics().queried(xpath, System.nanoTime() - start, token == NO_VALUE ? 0 : 1);
+        }
+    }
+
+    /**
+     * A lazy evaluation of an xpath. The compiled query is put back into the {@link XPathCache} and the navigation into the
+     * pool of the document once the evaluation is exhausted or closed, an iteration that the caller abandons early leaves
+     * both to the garbage collector.
+     */
+    private class Selection implements Iterator<XmlContext> {
+
+        private final XPathCache.Key key;
+        private final VTDNav selectionNavigation;
+        private final AutoPilot selectionAutoPilot;
+        private XmlContext next;
+        private boolean exhausted;
+
+        /**
+         * @param key                 the key of the xpath to evaluate.
+         * @param selectionNavigation the navigation to evaluate on, positioned at this context: a navigation of its own
+         *                            for lazy evaluations, a borrowed one for evaluations completed at once.
+         */
+        private Selection(final XPathCache.Key key, final VTDNav selectionNavigation) {
+            this.key = key;
+            this.selectionNavigation = selectionNavigation;
+            try {
+                this.selectionAutoPilot = document.getQueries().acquire(key);
+            } catch (XPathParseException e) {
+                throw new FralaxException("Xpath can not be selected from Parser", e);
+            }
+            selectionAutoPilot.bind(selectionNavigation);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !exhausted) {
+                evaluateNext();
+            }
+            return next != null;
+        }
+
+        @Override
+        public XmlContext next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final XmlContext result = next;
+            next = null;
+            return result;
+        }
+
+        private void evaluateNext() {
+            try {
+                final int xpathResultIndex = nextResult(selectionAutoPilot, selectionNavigation);
+                if (xpathResultIndex == -1) {
+                    finish();
+                } else if (selectionNavigation.getTokenType(xpathResultIndex) == VTDNav.TOKEN_CHARACTER_DATA) {
+                    //Take into account searches for Attribute/Value of an Element
+                    next = new ValueContext(selectionNavigation.toNormalizedString(xpathResultIndex));
+                } else if (selectionNavigation.getTokenType(xpathResultIndex) == VTDNav.TOKEN_ATTR_NAME) {
+                    next = new ValueContext(selectionNavigation.toNormalizedString(xpathResultIndex + 1));
+                } else {
+                    next = new VtdXmlParserContext(document, xpathResultIndex);
+                }
+            } catch (XPathEvalException | NavException e) {
+                if (" Function Expr can't eval to node set ".equals(e.getMessage())) {
+                    next = new ValueContext(selectionAutoPilot.evalXPathToString());
+                    finish();
+                } else {
+                    finish();
+                    if (e.getMessage().contains("binary")) {
+                        throw new FralaxException("Binary Expressions are not supported", e);
+                    }
+                    throw new FralaxException("Error when navigating through XPathResults", e);
+                }
+            }
+        }
+
+        private void finish() {
+            exhausted = true;
+            selectionAutoPilot.resetXPath();
+            document.getQueries().release(key, selectionAutoPilot);
+            document.release(selectionNavigation);
+        }
+
+        /** Abandons the evaluation and puts the compiled query back into the cache and the navigation into the pool. */
+        private void close() {
+            if (!exhausted) {
+                finish();
+            }
         }
     }
 
@@ -162,121 +1025,156 @@ class VtdXmlParserContext implements XmlContext {
         return asString(false);
     }
 
+    /** Decodes the bytes of the element (or the complete document for the root context) straight from the parsed document. */
     @Override
-    public String asString(final boolean formatted) {
-        final VTDNav selectionNavigation = navigation.cloneNav();
-        if (selectionNavigation.getCurrentIndex() == selectionNavigation.getRootIndex()) {
-            try (final ByteArrayOutputStream outputStream= new ByteArrayOutputStream()) {
-                selectionNavigation.dumpXML(outputStream);
-                return outputStream.toString();
-            } catch (final IOException e) {
-                // try to create string otherwise
-            }
-        }
+    public String asFragment() {
         try {
-            final int index = selectionNavigation.getCurrentIndex();
-            final StringBuilder curElement = new StringBuilder("<").append(selectionNavigation.toNormalizedString(index));
-            evaluateAttributes().forEach((str) -> curElement.append(" ").append(str));
-            final ChildrenAndSiblings childrenAndSiblings = evaluateChildrenAndSiblings(formatted, selectionNavigation.getCurrentDepth(), index, selectionNavigation.getCurrentDepth());
-            //check size so we can be sure this isn't just a single value object/an empty object (e.g <author>Hitchcock</author> shouldn't be linebroken/indented.)
-            curElement.append(formatted && childrenAndSiblings.children.size() > 1 ? ">\n" : ">");
-            //same as above comment
-            childrenAndSiblings.children.forEach(formatted  && childrenAndSiblings.children.size() > 1 ? curElement.append("    ")::append : curElement::append);
-            childrenAndSiblings.siblings.forEach(curElement::append);
-            curElement.append("</").append(selectionNavigation.toNormalizedString(index)).append(">");
-            return curElement.toString();
-        } catch (NavException e) {
+            final long fragment = fragment();
+            return new String(document.getBytes(), (int) fragment, (int) (fragment >>> 32), document.getCharset());
+        } catch (final NavException e) {
             throw new FralaxException("failed to transform to string", e);
         }
     }
 
+    @Override
+    public void writeTo(final OutputStream outputStream) throws IOException {
+        final long fragment = fragmentOrFail();
+        outputStream.write(document.getBytes(), (int) fragment, (int) (fragment >>> 32));
+    }
 
-    /**
-     * Used to get all Attributes of the Current Node.
-     *
-     * @return A List of all XMLAttributes in the current Node.
-     * @throws NavException When an Error occurs navigating the attributes;
-     */
-    private List<String> evaluateAttributes() throws NavException {
-        final List<String> attributes = new ArrayList<>();
-        final int attrCount = navigation.getAttrCount();
-        final int curIndex = navigation.getCurrentIndex();
-        for (int i = curIndex + 1; i < curIndex + 1 + attrCount * 2; i += 2) {
-            final String attributeKey = navigation.toNormalizedString(i);
-            final String attributeValue = navigation.toRawString(i + 1);
-            attributes.add(attributeKey + "=\"" + attributeValue + "\"");
+    @Override
+    public void writeTo(final WritableByteChannel channel) throws IOException {
+        final long fragment = fragmentOrFail();
+        final ByteBuffer buffer = ByteBuffer.wrap(document.getBytes(), (int) fragment, (int) (fragment >>> 32));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @Override
+    public void writeTo(final Appendable appendable) throws IOException {
+        final long fragment = fragmentOrFail();
+        final ByteBuffer buffer = ByteBuffer.wrap(document.getBytes(), (int) fragment, (int) (fragment >>> 32));
+        VtdEncodings.decode(buffer, document.getCharset(), appendable);
+    }
+
+    private long fragmentOrFail() {
+        try {
+            return fragment();
+        } catch (final NavException e) {
+            throw new FralaxException("failed to locate element in document", e);
         }
-        return attributes;
     }
 
     /**
-     * Used to get All Children of the Current Node as Well as its Siblings. Uses Recursive DFS to find all nodes required then parses them into XMLElements
-     * and returns as List of Lists with the first element being the children and the second Element being the siblings (each as its own XMLElement List).
+     * Locates this context in the bytes of the parsed document.
      *
-     * @param rootDepth   the rootDepth index we start the search from.
-     * @param parentIndex the parent Index of the current search.
-     * @param startDepth  the startDepth of the current iteration.
-     * @return A List of Lists with 2 elements: Element at index 0 is the children of the current Node. Element at index 1 is the siblings of the current node.
-     * @throws NavException Error that occurs when the traversing of Nodes fails.
+     * @return the offset of this context in the lower 32 bits, its length in the upper 32 bits (as {@link VTDNav#getElementFragment()}).
+     * @throws NavException thrown when the element can not be located.
      */
-    private ChildrenAndSiblings evaluateChildrenAndSiblings(final boolean formatted, final int rootDepth, final int parentIndex, final int startDepth) throws NavException {
-        ChildrenAndSiblings childrenAndSiblings = new ChildrenAndSiblings();
-        final int startNesting = navigation.getNestingLevel();
-        //Traversing children, uses startDepth as a check as we don't need to traverse already visited child nodes.
-        if (navigation.toElement(VTDNav.FIRST_CHILD) && startDepth < navigation.getCurrentDepth()) {
-            traverse(formatted, startNesting, rootDepth, startDepth, childrenAndSiblings.children);
-        } else {
-            childrenAndSiblings.children.add(navigation.getXPathStringVal());
+    private long fragment() throws NavException {
+        if (index == document.getRootIndex()) {
+            return ((long) document.getLength()) << 32 | document.getOffset();
+        }
+        final VTDNav navigation = document.borrow(index);
+        try {
+            return navigation.getElementFragment();
+        } finally {
+            document.release(navigation);
         }
+    }
 
-        //After traversing all children nodes we now go back to our parent element and traverse all our siblings.
-        navigation.recoverNode(parentIndex);
-        //Traversing siblings, uses rootDepth in the check so we don't keep on checking siblings of the node we start our search from.
-        if (navigation.toElement(VTDNav.NEXT_SIBLING) && rootDepth < navigation.getCurrentDepth()) {
-            //depth /level -1 to account for traversing back to parent
-            traverse(formatted, startNesting - 1, rootDepth, startDepth - 1, childrenAndSiblings.siblings);
+    @Override
+    public String asString(final boolean formatted) {
+        final long start = System.nanoTime();
+        final String text = serialize(formatted);
+        Fralax.getMetrics().serialized(System.nanoTime() - start, text.length());
+        return text;
+    }
+
+    private String serialize(final boolean formatted) {
+        if (index == document.getRootIndex()) {
+            return asFragment();
+        }
+        final VTDNav navigation = document.borrow(index);
+        try {
+            final StringBuilder curElement = new StringBuilder();
+            appendStartTag(navigation, curElement);
+            if (!navigation.toElement(VTDNav.FIRST_CHILD)) {
+                curElement.append(navigation.getXPathStringVal());
+            } else {
+                //check for siblings so we can be sure this isn't just a single child (e.g <author><name>Hitchcock</name></author> shouldn't be linebroken/indented.)
+                if (formatted && navigation.toElement(VTDNav.NEXT_SIBLING)) {
+                    navigation.toElement(VTDNav.PREV_SIBLING);
+                    curElement.append("\n    ");
+                }
+                appendDescendants(navigation, formatted, navigation.getCurrentDepth() - 1, curElement);
+            }
+            curElement.append("</").append(navigation.toNormalizedString(index)).append(">");
+            return curElement.toString();
+        } catch (NavException e) {
+            throw new FralaxException("failed to transform to string", e);
+        } finally {
+            document.release(navigation);
         }
-        return childrenAndSiblings;
     }
 
     /**
-     * Traverses all child and its sibling elements for a certain element. Uses a DFS approach: go to deepest
-     * element as long as possible, then resolve the children.
+     * Appends the start tag including all attributes of the current element.
      *
-     * @param rootDepth  the depth of the root element of this context.
-     * @param startDepth the depth we started our search on (so the depth of the first result for the xpath).
-     * @param elements   the elements to fill.
-     * @throws NavException thrown when an error occurs navigating through the context.
+     * @param navigation the navigation positioned at the element.
+     * @param builder    the builder to append to.
+     * @throws NavException When an Error occurs navigating the attributes;
      */
-    private void traverse(final boolean formatted, final int startNesting, final int rootDepth, final int startDepth, final List<String> elements) throws NavException {
-        int curIndex = navigation.getCurrentIndex();
-        StringBuilder child = new StringBuilder();
-        if (formatted) {
-            for (int i = 0; i < navigation.getNestingLevel() - startNesting; i++) {
-                child.append("    ");
-            }
-        }
-        child.append("<");
-        child.append(navigation.toNormalizedString(curIndex));
-        evaluateAttributes().forEach((String s) -> child.append(" ").append(s));
-        child.append(">");
-        ChildrenAndSiblings childrenAndSiblings;
-        childrenAndSiblings = evaluateChildrenAndSiblings(formatted, rootDepth, curIndex, startDepth + 1);
-        childrenAndSiblings.children.forEach(child::append);
-        child.append("</").append(navigation.toNormalizedString(curIndex)).append(">");
-        if (formatted) {
-            child.append("\n");
+    private static void appendStartTag(final VTDNav navigation, final StringBuilder builder) throws NavException {
+        final int curIndex = navigation.getCurrentIndex();
+        builder.append("<").append(navigation.toNormalizedString(curIndex));
+        final int attrCount = navigation.getAttrCount();
+        for (int i = curIndex + 1; i < curIndex + 1 + attrCount * 2; i += 2) {
+            builder.append(" ").append(navigation.toNormalizedString(i)).append("=\"").append(navigation.toRawString(i + 1)).append("\"");
         }
-        elements.add(child.toString());
-        elements.addAll(childrenAndSiblings.siblings);
+        builder.append(">");
     }
 
     /**
-     * Class encapsulating two arrayLists, one for children of an xml element one for siblings of the element at the same depth.
+     * Appends an element and all its following siblings including their descendants, walking the elements in document order
+     * without recursion. Elements without child elements are written with their text, the text of elements with child elements
+     * is omitted. When formatted, every element is followed by a line break and every element but the first child of its parent
+     * is indented.
+     *
+     * @param navigation  the navigation positioned at the first element, it is positioned at the parent of the elements afterwards.
+     * @param formatted   whether to write line breaks and indentation.
+     * @param parentDepth the depth of the parent of the elements, where the walk ends.
+     * @param builder     the builder to append to.
+     * @throws NavException thrown when an error occurs navigating through the context.
      */
-    private static class ChildrenAndSiblings {
-        private final List<String> children = new ArrayList<>();
-        private final List<String> siblings = new ArrayList<>();
+    private static void appendDescendants(final VTDNav navigation, final boolean formatted, final int parentDepth, final StringBuilder builder) throws NavException {
+        boolean firstChild = true;
+        while (true) {
+            if (formatted && !firstChild) {
+                builder.append("    ");
+            }
+            appendStartTag(navigation, builder);
+            if (navigation.toElement(VTDNav.FIRST_CHILD)) {
+                firstChild = true;
+                continue;
+            }
+            builder.append(navigation.getXPathStringVal());
+            //close the element and all ancestors that have no further children, then continue with the next sibling
+            while (true) {
+                builder.append("</").append(navigation.toNormalizedString(navigation.getCurrentIndex())).append(">");
+                if (formatted) {
+                    builder.append("\n");
+                }
+                if (navigation.toElement(VTDNav.NEXT_SIBLING)) {
+                    firstChild = false;
+                    break;
+                }
+                navigation.toElement(VTDNav.PARENT);
+                if (navigation.getCurrentDepth() == parentDepth) {
+                    return;
+                }
+            }
+        }
     }
-
 }
@@ -0,0 +1,197 @@
+package net.onenandone.fralax.parser;
+
+import com.ximpleware.AutoPilot;
+import com.ximpleware.XPathParseException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The settings and statistics of the caches of compiled xpath queries, shared by all documents parsed with a {@link VtdXmlParser}.
+ * Each document keeps its compiled queries in a bounded, least recently used {@link Queries cache} of its own, as a compiled
+ * query references the navigation it evaluated last (also from within its steps), so a cache shared across documents
+ * would keep documents reachable that have been replaced, e.g. by a reload of a watched file. Queries are keyed by the
+ * xpath and the namespaces declared for it. A compiled query is handed out to one evaluation at a time and put back into
+ * the cache afterwards, concurrent evaluations of the same query compile an additional instance. Queries of
+ * {@link Key#pinned() pinned} keys are never evicted.
+ */
+public final class XPathCache {
+
+    /** The number of compiled queries kept per document by default. */
+    public static final int DEFAULT_MAXIMUM_SIZE = 256;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile int maximumSize = DEFAULT_MAXIMUM_SIZE;
+
+    XPathCache() {
+    }
+
+    /**
+     * @return a new, empty cache of the compiled queries of a document.
+     */
+    Queries newQueries() {
+        return new Queries();
+    }
+
+    /**
+     * @return the number of evaluations that could reuse a compiled query.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of evaluations that had to compile their query.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the maximum number of compiled queries kept per document.
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Sets the maximum number of compiled queries kept per document, least recently used queries are evicted first as
+     * soon as the next query is cached.
+     *
+     * @param maximumSize the maximum number of compiled queries, {@code 0} disables caching.
+     */
+    public void setMaximumSize(final int maximumSize) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("the maximum size may not be negative");
+        }
+        this.maximumSize = maximumSize;
+    }
+
+    /** Resets the statistics. */
+    public void clear() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * The compiled queries of one document, which become unreachable together with it.
+     */
+    final class Queries {
+
+        private final Map<Key, AutoPilot> compiledQueries = new LinkedHashMap<Key, AutoPilot>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, AutoPilot> eldest) {
+                return size() > maximumSize;
+            }
+        };
+        private final ConcurrentMap<Key, Queue<AutoPilot>> pinnedQueries = new ConcurrentHashMap<>();
+
+        private Queries() {
+        }
+
+        /**
+         * Takes the compiled query for the key out of the cache or compiles it if it is not cached.
+         *
+         * @param key the key of the query.
+         * @return the compiled query, not bound to any navigation.
+         * @throws XPathParseException thrown when the xpath can not be compiled.
+         */
+        AutoPilot acquire(final Key key) throws XPathParseException {
+            final AutoPilot cached;
+            if (key.pinned) {
+                final Queue<AutoPilot> pinned = pinnedQueries.get(key);
+                cached = pinned == null ? null : pinned.poll();
+            } else {
+                synchronized (compiledQueries) {
+                    cached = compiledQueries.remove(key);
+                }
+            }
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached;
+            }
+            misses.incrementAndGet();
+            final AutoPilot autoPilot = new AutoPilot();
+            for (Map.Entry<String, String> entry : key.namespaces.entrySet()) {
+                autoPilot.declareXPathNameSpace(entry.getKey(), entry.getValue());
+            }
+            autoPilot.selectXPath(key.xpath);
+            return autoPilot;
+        }
+
+        /**
+         * Puts a compiled query back into the cache after its evaluation.
+         *
+         * @param key       the key of the query.
+         * @param autoPilot the compiled query, already reset.
+         */
+        void release(final Key key, final AutoPilot autoPilot) {
+            if (key.pinned) {
+                pinnedQueries.computeIfAbsent(key, pinnedKey -> new ConcurrentLinkedQueue<>()).offer(autoPilot);
+                return;
+            }
+            synchronized (compiledQueries) {
+                compiledQueries.putIfAbsent(key, autoPilot);
+            }
+        }
+    }
+
+    /**
+     * Identifies a compiled query by its xpath and the declared namespaces.
+     */
+    static final class Key {
+
+        private final String xpath;
+        private final Map<String, String> namespaces;
+        private final int hash;
+        private final boolean pinned;
+
+        /**
+         * @param xpath      the xpath of the query.
+         * @param namespaces the namespaces declared for the query, must not be modified afterwards.
+         */
+        Key(final String xpath, final Map<String, String> namespaces) {
+            this(xpath, namespaces, false);
+        }
+
+        private Key(final String xpath, final Map<String, String> namespaces, final boolean pinned) {
+            this.xpath = xpath;
+            this.namespaces = namespaces;
+            this.hash = 31 * xpath.hashCode() + namespaces.hashCode();
+            this.pinned = pinned;
+        }
+
+        /**
+         * Returns an equal key whose compiled queries are kept by each document, one per concurrent evaluation, instead of
+         * being subject to the least recently used eviction.
+         *
+         * @return the pinned key.
+         */
+        Key pinned() {
+            return new Key(xpath, namespaces, true);
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) other;
+            return hash == key.hash && xpath.equals(key.xpath) && namespaces.equals(key.namespaces);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package net.onenandone.fralax;
+
+import net.onenandone.fralax.parser.VtdXmlParser;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AttributeIndexTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        Fralax.setMetrics(FralaxMetrics.NOOP);
+    }
+
+    @Test
+    public void testIndexedQueriesMatchScans() throws Exception {
+        final String file = DocumentGenerator.fleet(temporaryFolder.newFile("fleet.xml").toPath(), 200, false).toString();
+        final XmlContext scanned = Fralax.parse(file);
+        final XmlContext indexed = Fralax.parse(file).indexAttribute("vehicle", "id").indexAttribute("vehicle", "missing");
+        for (final String id : new String[]{"v0", "v57", "v199", "v200", "v'"}) {
+            final String xpath = "//vehicle[@id=\"" + id + "\"]";
+            assertEquals(fragments(scanned.selectAll(xpath)), fragments(indexed.selectAll(xpath)));
+            assertEquals(fragments(scanned.selectAll(xpath)), fragments(indexed.lookup("vehicle", "id", id)));
+            assertEquals(scanned.count(xpath), indexed.count(xpath));
+            assertEquals(scanned.exists(xpath), indexed.exists(xpath));
+            assertEquals(scanned.select(xpath).map(XmlContext::asFragment), indexed.select(xpath).map(XmlContext::asFragment));
+        }
+        assertEquals("Vehicle 57", indexed.select("//vehicle[@id='v57']").get().select("name/text()").get().asString());
+        assertTrue(indexed.lookup("vehicle", "missing", "x").isEmpty());
+        // queries of other forms and lookups of attributes without index are evaluated as usual
+        assertEquals(1, indexed.selectAll("//vehicle[@id='v57']/name").size());
+        assertTrue(indexed.lookup("driver", "id", "d1").isEmpty());
+    }
+
+    @Test
+    public void testNamespacedNames() throws Exception {
+        final String file = DocumentGenerator.namespaceHeavy(temporaryFolder.newFile("namespaces.xml").toPath(), 30, 3).toString();
+        final XmlContext scanned = Fralax.parse(file);
+        final XmlContext indexed = Fralax.parse(file).indexAttribute("n1:entry", "n1:key");
+        final String xpath = "//n1:entry[@n1:key='k7']";
+        assertEquals(fragments(scanned.selectAll(xpath)), fragments(indexed.selectAll(xpath)));
+        assertEquals("value 7", indexed.lookup("n1:entry", "n1:key", "k7").get(0).select("text()").get().asString());
+    }
+
+    @Test
+    public void testIndexedQueriesAreProfiled() throws Exception {
+        final String file = DocumentGenerator.fleet(temporaryFolder.newFile("fleet.xml").toPath(), 20, false).toString();
+        final XmlContext xml = Fralax.parse(file).indexAttribute("vehicle", "id");
+        final QueryProfiler profiler = new QueryProfiler(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        Fralax.setMetrics(profiler);
+        assertEquals(1, xml.lookup("vehicle", "id", "v3").size());
+        assertEquals(1, xml.selectAll("//vehicle[@id='v3']").size());
+        assertTrue(xml.select("//vehicle[@id='v3']").isPresent());
+        assertEquals(1, xml.count("//vehicle[@id='v3']"));
+        assertTrue(xml.exists("//vehicle[@id='v3']"));
+        assertTrue(xml.iterator("//vehicle[@id='v3']").hasNext());
+        assertEquals(6, profiler.snapshot().get(0).getCount());
+    }
+
+    @Test
+    public void testIndexedResultsAreCached() throws Exception {
+        final String file = DocumentGenerator.fleet(temporaryFolder.newFile("fleet.xml").toPath(), 20, false).toString();
+        final XmlContext xml = Fralax.parse(file).indexAttribute("vehicle", "id").enableResultCache(16);
+        final XmlContext vehicle = xml.select("//vehicle[@id='v3']").get();
+        assertSame(vehicle, xml.select("//vehicle[@id='v3']").get());
+        assertSame(vehicle, xml.selectAll("//vehicle[@id='v3']").get(0));
+        assertSame(vehicle, xml.iterator("//vehicle[@id='v3']").next());
+    }
+
+    @Test
+    public void testDuplicateValuesAndSubtrees() throws Exception {
+        final File file = temporaryFolder.newFile("groups.xml");
+        Files.write(file.toPath(), ("<root>" +
+                "<group name=\"a\"><item key=\"1\">a1</item><item key=\"2\">a2</item><item key=\"1\">a1'</item></group>" +
+                "<group name=\"b\"><item key=\"1\">b1</item></group>" +
+                "</root>").getBytes(StandardCharsets.UTF_8));
+        final XmlContext xml = Fralax.parse(file.getPath()).indexAttribute("item", "key");
+        assertEquals(3, xml.lookup("item", "key", "1").size());
+        final XmlContext groupA = xml.select("//group[@name='a']").get();
+        final XmlContext groupB = xml.select("//group[@name='b']").get();
+        assertEquals(2, groupA.selectAll("//item[@key='1']").size());
+        assertEquals(2, groupA.lookup("item", "key", "1").size());
+        assertEquals("b1", groupB.select("//item[@key='1']/text()").get().asString());
+        assertEquals("b1", groupB.lookup("item", "key", "1").get(0).select("text()").get().asString());
+        try {
+            groupA.select("//item[@key='1']");
+            fail("two items should not be selected");
+        } catch (final FralaxException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testValuesWithWhitespaceAndReferencesMatchScans() throws Exception {
+        final File file = temporaryFolder.newFile("values.xml");
+        Files.write(file.toPath(), ("<root>" +
+                "<item key=\"x  y\">1</item><item key=\" x y \">2</item><item key=\"x&#9;y\">3</item><item key=\"x\ty\">4</item>" +
+                "<item key=\"x&#10;y\">5</item><item key=\"x\ny\">6</item><item key=\"a&amp;b\">7</item><item key=\"&lt;b&gt;\">8</item>" +
+                "<item key=\"&#32;p\">9</item><item key=\"caf&#233;\">10</item><item key=\"A&#x1F600;\">11</item>" +
+                "</root>").getBytes(StandardCharsets.UTF_8));
+        final XmlContext scanned = Fralax.parse(file.getPath());
+        final XmlContext indexed = Fralax.parse(file.getPath()).indexAttribute("item", "key");
+        for (final String key : new String[]{"x  y", "x y", " x y ", "x\ty", "x\ny", "a&b", "a&amp;b", "<b>", " p", "p", "café",
+                "A😀"}) {
+            final String xpath = "//item[@key='" + key + "']";
+            assertEquals(key, fragments(scanned.selectAll(xpath)), fragments(indexed.selectAll(xpath)));
+            assertEquals(key, scanned.count(xpath), indexed.count(xpath));
+        }
+    }
+
+    @Test
+    public void testIndexIsRebuiltOnReload() throws Exception {
+        final File file = temporaryFolder.newFile("reload.xml");
+        Files.write(file.toPath(), "<root><item key=\"a\">1</item></root>".getBytes(StandardCharsets.UTF_8));
+        try (final FralaxWatchRegistry registry = new FralaxWatchRegistry(1, 0, TimeUnit.MILLISECONDS);
+             final ManagedXmlContext xml = registry.register(file.getPath(), VtdXmlParser.class)) {
+            xml.indexAttribute("item", "key");
+            assertEquals("1", xml.lookup("item", "key", "a").get(0).select("text()").get().asString());
+            Files.write(file.toPath(), "<root><item key=\"b\">2</item><item key=\"a\">3</item></root>".getBytes(StandardCharsets.UTF_8));
+            xml.reload();
+            assertEquals("3", xml.lookup("item", "key", "a").get(0).select("text()").get().asString());
+            assertEquals("2", xml.select("//item[@key='b']/text()").get().asString());
+        }
+    }
+
+    private static String fragments(final List<XmlContext> contexts) {
+        final StringBuilder fragments = new StringBuilder();
+        for (final XmlContext context : contexts) {
+            fragments.append(context.asFragment()).append('|');
+        }
+        return fragments.toString();
+    }
+}
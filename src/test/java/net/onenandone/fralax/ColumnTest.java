@@ -0,0 +1,124 @@
+package net.onenandone.fralax;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ColumnTest extends ParserTestBase {
+
+    private static final int VEHICLES = 1000;
+
+    private final XmlContext xml;
+
+    public ColumnTest(final Class<? extends XmlParser> xmlParserClass) throws Exception {
+        super(xmlParserClass);
+        this.xml = parse("fleet.xml", file -> DocumentGenerator.fleet(file, VEHICLES, false));
+    }
+
+    @Test
+    public void testStrings() {
+        final String[] ids = xml.selectStrings("//vehicle/@id");
+        assertEquals(VEHICLES, ids.length);
+        assertEquals("v0", ids[0]);
+        assertEquals("v999", ids[999]);
+        assertArrayEquals(new String[]{"Vehicle 7"}, xml.selectStrings("//vehicle[@id='v7']/name/text()"));
+        assertArrayEquals(new String[]{xml.select("//vehicle[@id='v7']/name").get().asString()}, xml.selectStrings("//vehicle[@id='v7']/name"));
+        assertArrayEquals(new String[]{String.valueOf(VEHICLES)}, xml.selectStrings("count(//vehicle)"));
+        assertEquals(0, xml.selectStrings("//bicycle").length);
+    }
+
+    @Test
+    public void testNumbers() {
+        final int[] seats = xml.selectInts("//vehicle/seats/text()");
+        assertEquals(VEHICLES, seats.length);
+        for (int i = 0; i < VEHICLES; i++) {
+            assertEquals(2 + i % 7, seats[i]);
+        }
+        assertArrayEquals(Arrays.stream(seats).asLongStream().toArray(), xml.selectLongs("//vehicle/seats/text()"));
+        assertArrayEquals(Arrays.stream(seats).asDoubleStream().toArray(), xml.selectDoubles("//vehicle/seats/text()"), 0);
+        assertArrayEquals(new int[]{VEHICLES}, xml.selectInts("count(//vehicle)"));
+    }
+
+    @Test
+    public void testBuffers() {
+        final int[] ints = new int[12];
+        assertEquals(10, xml.selectInts("//vehicle[position() <= 10]/seats/text()", ints, 2));
+        assertArrayEquals(new int[]{0, 0, 2, 3, 4, 5, 6, 7, 8, 2, 3, 4}, ints);
+        final long[] longs = new long[3];
+        assertEquals(1, xml.selectLongs("//vehicle[@id='v5']/seats/text()", longs, 1));
+        assertArrayEquals(new long[]{0, 7, 0}, longs);
+        final double[] doubles = new double[VEHICLES * 2];
+        assertEquals(VEHICLES, xml.selectDoubles("//vehicle/seats/text()", doubles, 0));
+        assertEquals(2 + (VEHICLES - 1) % 7, doubles[VEHICLES - 1], 0);
+    }
+
+    @Test
+    public void testBuffersTooSmall() {
+        final int[] ints = new int[VEHICLES];
+        assertEquals(VEHICLES, xml.selectInts("//vehicle/seats/text()", ints, 0));
+        assertBufferTooSmall(() -> xml.selectInts("//vehicle/seats/text()", ints, 1));
+        assertBufferTooSmall(() -> xml.selectInts("//vehicle/name/text()", new int[1], 0));
+        assertBufferTooSmall(() -> xml.selectLongs("//vehicle/seats/text()", new long[1], 0));
+        assertBufferTooSmall(() -> xml.selectDoubles("//vehicle/seats/text()", new double[VEHICLES], 1));
+    }
+
+    @Test
+    public void testFailedBufferSelectionsLeaveBufferUnchanged() {
+        final int[] ints = {-1, -1, -1, -1};
+        assertBufferTooSmall(() -> xml.selectInts("//vehicle[position() <= 5]/seats/text()", ints, 0));
+        assertArrayEquals(new int[]{-1, -1, -1, -1}, ints);
+        final double[] doubles = {-1, -1};
+        assertBufferTooSmall(() -> xml.selectDoubles("//vehicle/seats/text()", doubles, 1));
+        assertArrayEquals(new double[]{-1, -1}, doubles, 0);
+    }
+
+    @Test
+    public void testEmptyElementsHaveNoText() throws Exception {
+        final XmlContext values = parse("empty.xml", "<r><a></a><a>5</a><a/></r>");
+        assertArrayEquals(new String[]{"5"}, values.selectStrings("/r/a/text()"));
+        assertArrayEquals(new int[]{5}, values.selectInts("/r/a/text()"));
+        final int[] ints = {-1, -1, -1, -1};
+        assertEquals(1, values.selectInts("/r/a/text()", ints, 0));
+        assertArrayEquals(new int[]{5, -1, -1, -1}, ints);
+        assertEquals(1, values.count("/r/a/text()"));
+        assertEquals(1, values.selectAll("/r/a/text()").size());
+        assertFalse(values.selectInt("/r/a[1]/text()").isPresent());
+    }
+
+    private static void assertBufferTooSmall(final Runnable selection) {
+        try {
+            selection.run();
+            fail("the values should not fit into the buffer");
+        } catch (final FralaxException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = FralaxException.class)
+    public void testNotANumber() {
+        xml.selectInts("//vehicle/name/text()");
+    }
+
+    @Test
+    public void testColumns() {
+        final String[][] columns = xml.selectColumns("//vehicle", "@id", "name/text()", "seats/text()", "@missing");
+        assertEquals(4, columns.length);
+        for (final String[] column : columns) {
+            assertEquals(VEHICLES, column.length);
+        }
+        assertEquals("v42", columns[0][42]);
+        assertEquals("Vehicle 42", columns[1][42]);
+        assertEquals("2", columns[2][42]);
+        assertNull(columns[3][42]);
+        assertEquals(0, xml.selectColumns("//bicycle", "@id")[0].length);
+    }
+
+    @Test
+    public void testColumnsOfSelection() {
+        final XmlContext vehicle = xml.select("//vehicle[@id='v3']").get();
+        final String[][] columns = vehicle.selectColumns("name", "text()");
+        assertArrayEquals(new String[]{"Vehicle 3"}, columns[0]);
+    }
+}
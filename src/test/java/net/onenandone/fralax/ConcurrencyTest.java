@@ -0,0 +1,110 @@
+package net.onenandone.fralax;
+
+import net.onenandone.fralax.parser.VtdHugeXmlParser;
+import net.onenandone.fralax.parser.VtdXmlParser;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Queries one parsed document from many threads at once and compares every result with the one of a single thread.
+ */
+public class ConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 500;
+
+    @Test
+    public void testVtdXmlParser() throws Exception {
+        assertConcurrentReads(Fralax.parse(file(), VtdXmlParser.class));
+    }
+
+    @Test
+    public void testVtdHugeXmlParser() throws Exception {
+        assertConcurrentReads(Fralax.parse(file(), VtdHugeXmlParser.class));
+    }
+
+    @Test
+    public void testSharedResultContext() throws Exception {
+        assertConcurrentReads(Fralax.parse(file()).select("/driverVehicleInfo").get());
+    }
+
+    @Test
+    public void testQueriedDocumentIsCollectable() throws Exception {
+        final ExecutorService worker = Executors.newSingleThreadExecutor();
+        try {
+            // the document is parsed in place, so the array is reachable as long as the document is
+            final WeakReference<byte[]> document = worker.submit(() -> {
+                final byte[] xml = Files.readAllBytes(Paths.get(file()));
+                readAll(Fralax.parse(xml));
+                return new WeakReference<>(xml);
+            }).get(60, TimeUnit.SECONDS);
+
+            // the worker lives on like the threads of a pool that queried a document replaced by a reload
+            for (int i = 0; i < 100 && document.get() != null; i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            assertNull("the worker thread keeps the document reachable", document.get());
+        } finally {
+            worker.shutdownNow();
+        }
+    }
+
+    private static String file() {
+        return ConcurrencyTest.class.getResource("/driverVehicleInfo.xml").getFile();
+    }
+
+    private static void assertConcurrentReads(final XmlContext xml) throws Exception {
+        final List<String> expected = readAll(xml);
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<List<String>>> results = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                results.add(executor.submit((Callable<List<String>>) () -> {
+                    start.await();
+                    List<String> result = null;
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        result = readAll(xml);
+                        assertEquals(expected, result);
+                    }
+                    return result;
+                }));
+            }
+            start.countDown();
+            for (final Future<List<String>> result : results) {
+                assertEquals(expected, result.get(60, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<String> readAll(final XmlContext xml) {
+        final List<String> result = new ArrayList<>();
+        result.add(xml.select("count(//vehicle)").get().asString());
+        result.add(xml.select("//vehicle[@id='AM1']/vehicleId/text()").get().asString());
+        for (final XmlContext vehicle : xml.selectAll("//vehicle")) {
+            result.add(vehicle.asString());
+            result.add(vehicle.asString(true));
+            result.add(vehicle.select("@id").get().asString());
+        }
+        result.add(xml.stream("//vehicleId/text()").map(XmlContext::asString).collect(Collectors.joining(",")));
+        result.add(xml.asString());
+        return result;
+    }
+}
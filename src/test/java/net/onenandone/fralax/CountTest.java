@@ -0,0 +1,46 @@
+package net.onenandone.fralax;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CountTest extends ParserTestBase {
+
+    private final XmlContext xml;
+
+    public CountTest(final Class<? extends XmlParser> xmlParserClass) throws Exception {
+        super(xmlParserClass);
+        this.xml = parse("fleet.xml", file -> DocumentGenerator.fleet(file, 100, false));
+    }
+
+    @Test
+    public void testCount() {
+        assertEquals(100, xml.count("//vehicle"));
+        assertEquals(10, xml.count("/fleet/driver"));
+        assertEquals(100, xml.count("//vehicle/@id"));
+        assertEquals(0, xml.count("//bicycle"));
+        assertEquals(1, xml.count("count(//vehicle)"));
+        assertEquals(2, xml.select("//vehicle[@id='v3']").get().count("*"));
+    }
+
+    @Test
+    public void testExists() {
+        assertTrue(xml.exists("//vehicle"));
+        assertTrue(xml.exists("//vehicle[@id='v99']/name/text()"));
+        assertFalse(xml.exists("//vehicle[@id='v100']"));
+        assertTrue(xml.select("//vehicle[@id='v3']").get().exists("seats"));
+    }
+
+    @Test
+    public void testSelectStopsAtSecondResult() {
+        try {
+            xml.select("//vehicle");
+            fail("more than one vehicle should not be selected");
+        } catch (final FralaxException e) {
+            // expected
+        }
+        // the abandoned evaluation must not disturb later queries
+        assertEquals("Vehicle 5", xml.select("//vehicle[@id='v5']/name/text()").get().asString());
+        assertFalse(xml.select("//bicycle").isPresent());
+    }
+}
@@ -0,0 +1,173 @@
+package net.onenandone.fralax;
+
+import net.onenandone.fralax.parser.VtdHugeXmlParser;
+import net.onenandone.fralax.parser.VtdXmlParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class DocumentCacheTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final DocumentCache cache = Fralax.getDocumentCache();
+
+    @Before
+    public void setUp() throws Exception {
+        cache.clear();
+        cache.setMaximumBytes(1024);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cache.setMaximumBytes(0);
+        cache.clear();
+    }
+
+    @Test
+    public void testSameFileIsParsedOnce() throws Exception {
+        final File file = write("a.xml", "<a>1</a>");
+        final XmlContext first = Fralax.parse(file.getPath());
+        final XmlContext second = Fralax.parse(file.getAbsoluteFile().toPath());
+
+        assertSame(first, second);
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getSize());
+        assertEquals(first.getRetainedBytes(), cache.getBytes());
+    }
+
+    @Test
+    public void testParsersAreCachedSeparately() throws Exception {
+        final File file = write("a.xml", "<a>1</a>");
+        assertNotSame(Fralax.parse(file.getPath(), VtdXmlParser.class), Fralax.parse(file.getPath(), VtdHugeXmlParser.class));
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testChangedFileIsParsedAgain() throws Exception {
+        final File file = write("a.xml", "<a>1</a>");
+        assertEquals("1", Fralax.parse(file.getPath()).select("/a/text()").get().asString());
+        write("a.xml", "<a>22</a>");
+        assertEquals("22", Fralax.parse(file.getPath()).select("/a/text()").get().asString());
+        assertEquals(1, cache.getSize()); // the former version is dropped
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        final File a = write("a.xml", "<a>0123456</a>");
+        final File b = write("b.xml", "<b>0123456</b>");
+        cache.setMaximumBytes(0);
+        cache.setMaximumBytes(Fralax.parse(a.getPath()).getRetainedBytes() * 3 / 2);
+        final XmlContext first = Fralax.parse(a.getPath());
+        Fralax.parse(b.getPath());
+
+        assertEquals(1, cache.getEvictions());
+        assertEquals(1, cache.getSize());
+        assertNotSame(first, Fralax.parse(a.getPath()));
+    }
+
+    @Test
+    public void testDocumentsAreWeighedByRetainedMemory() throws Exception {
+        final File file = write("a.xml", "<a><b>1</b><b>2</b></a>");
+        final XmlContext document = Fralax.parse(file.getPath());
+        // the document, 8 bytes for each of its 6 tokens (one of them the document itself) and 8 bytes for each of the two
+        // elements in the location cache
+        assertEquals(file.length() + 6 * 8 + 2 * 8, document.getRetainedBytes());
+        assertEquals(document.getRetainedBytes(), cache.getBytes());
+        assertEquals(document.getRetainedBytes(), Fralax.parse(file.getPath(), VtdHugeXmlParser.class).getRetainedBytes());
+    }
+
+    @Test
+    public void testDocumentsRetainingMoreThanTheBudgetAreEvicted() throws Exception {
+        final File file = write("a.xml", "<a><b>1</b><b>2</b></a>");
+        cache.setMaximumBytes(file.length() + 1);
+        assertNotSame(Fralax.parse(file.getPath()), Fralax.parse(file.getPath()));
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testEditKeepingSizeAndModificationTimeIsParsedAgain() throws Exception {
+        final File file = write("a.xml", "<a>1</a>");
+        final FileTime lastModified = Files.getLastModifiedTime(file.toPath());
+        assertEquals("1", Fralax.parse(file.getPath()).select("/a/text()").get().asString());
+        write("a.xml", "<a>2</a>");
+        Files.setLastModifiedTime(file.toPath(), lastModified);
+        assertEquals("2", Fralax.parse(file.getPath()).select("/a/text()").get().asString());
+    }
+
+    @Test
+    public void testLargeFilesAreNotCached() throws Exception {
+        cache.setMaximumBytes(4);
+        final File file = write("a.xml", "<a>1</a>");
+        assertNotSame(Fralax.parse(file.getPath()), Fralax.parse(file.getPath()));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testDisabledByDefault() throws Exception {
+        cache.setMaximumBytes(0);
+        final File file = write("a.xml", "<a>1</a>");
+        assertNotSame(Fralax.parse(file.getPath()), Fralax.parse(file.getPath()));
+        assertEquals(0, cache.getMisses());
+    }
+
+    @Test
+    public void testConcurrentCallersParseOnce() throws Exception {
+        final File file = write("a.xml", "<a>1</a>");
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<XmlContext>> results = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                results.add(executor.submit((Callable<XmlContext>) () -> Fralax.parse(file.getPath())));
+            }
+            final Set<XmlContext> documents = new HashSet<>();
+            for (final Future<XmlContext> result : results) {
+                documents.add(result.get());
+            }
+            assertEquals(1, documents.size());
+            assertEquals(1, cache.getMisses());
+            assertEquals(31, cache.getHits());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedParseIsNotCached() throws Exception {
+        final File file = write("a.xml", "<a>1");
+        try {
+            Fralax.parse(file.getPath());
+            fail();
+        } catch (final FralaxException e) {
+            // expected
+        }
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getBytes());
+    }
+
+    private File write(final String name, final String xml) throws Exception {
+        final File file = new File(temporaryFolder.getRoot(), name);
+        Files.write(file.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
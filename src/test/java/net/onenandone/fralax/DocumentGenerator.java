@@ -0,0 +1,139 @@
+package net.onenandone.fralax;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes deterministic synthetic documents of arbitrary size for scaling tests and benchmarks. The same arguments always
+ * produce the same document, byte by byte.
+ */
+public final class DocumentGenerator {
+
+    /** The deepest chain {@link #deep(Path, int, int)} writes, leaving room for the elements around the chains. */
+    public static final int MAX_DEPTH = 250;
+
+    private DocumentGenerator() {
+    }
+
+    /**
+     * Writes a fleet of vehicles and drivers, about 100 bytes per vehicle: {@code <fleet>} holds the vehicles
+     * ({@code <vehicle id="v0"><name>Vehicle 0</name><seats>2</seats></vehicle>}) and a driver for every tenth vehicle.
+     *
+     * @param file       the file to write.
+     * @param vehicles   the number of vehicles.
+     * @param namespaced whether the elements are qualified with the prefix {@code f} of the namespace {@code urn:fralax:fleet}.
+     * @return the file.
+     * @throws IOException thrown when the file can not be written.
+     */
+    public static Path fleet(final Path file, final int vehicles, final boolean namespaced) throws IOException {
+        final String prefix = namespaced ? "f:" : "";
+        try (final Writer writer = open(file)) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<" + prefix + "fleet");
+            if (namespaced) {
+                writer.write(" xmlns:f=\"urn:fralax:fleet\"");
+            }
+            writer.write(">\n");
+            for (int i = 0; i < vehicles; i++) {
+                writer.write("    <" + prefix + "vehicle id=\"v" + i + "\">\n");
+                writer.write("        <" + prefix + "name>Vehicle " + i + "</" + prefix + "name>\n");
+                writer.write("        <" + prefix + "seats>" + (2 + i % 7) + "</" + prefix + "seats>\n");
+                writer.write("    </" + prefix + "vehicle>\n");
+                if (i % 10 == 0) {
+                    writer.write("    <" + prefix + "driver><" + prefix + "vehicleId>v" + i + "</" + prefix + "vehicleId></" + prefix + "driver>\n");
+                }
+            }
+            writer.write("</" + prefix + "fleet>\n");
+        }
+        return file;
+    }
+
+    /**
+     * Writes a document of deeply nested chains: {@code <root><chains>} holds the passed number of chains, each of them
+     * {@code <level depth="1"><level depth="2">...} down to the passed depth, the innermost level holds the text of its
+     * chain number. VTD-XML supports a nesting depth of at most 254, so the depth is limited to {@link #MAX_DEPTH}.
+     *
+     * @param file   the file to write.
+     * @param chains the number of chains.
+     * @param depth  the number of nested {@code level} elements per chain.
+     * @return the file.
+     * @throws IOException thrown when the file can not be written.
+     */
+    public static Path deep(final Path file, final int chains, final int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("the depth may not exceed " + MAX_DEPTH + ", but was " + depth);
+        }
+        try (final Writer writer = open(file)) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<root><chains>");
+            for (int chain = 0; chain < chains; chain++) {
+                for (int i = 1; i <= depth; i++) {
+                    writer.write("<level depth=\"" + i + "\">");
+                }
+                writer.write(Integer.toString(chain));
+                for (int i = 0; i < depth; i++) {
+                    writer.write("</level>");
+                }
+            }
+            writer.write("</chains></root>\n");
+        }
+        return file;
+    }
+
+    /**
+     * Writes a wide document: {@code <root><items>} holds the passed number of {@code <item>} elements, each with the
+     * passed number of attributes {@code a0="..."}, {@code a1="..."} and its index as text.
+     *
+     * @param file       the file to write.
+     * @param items      the number of items.
+     * @param attributes the number of attributes of each item.
+     * @return the file.
+     * @throws IOException thrown when the file can not be written.
+     */
+    public static Path wide(final Path file, final int items, final int attributes) throws IOException {
+        try (final Writer writer = open(file)) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<root><items>");
+            for (int i = 0; i < items; i++) {
+                writer.write("<item");
+                for (int a = 0; a < attributes; a++) {
+                    writer.write(" a" + a + "=\"" + (i * 31 + a) % 1000 + "\"");
+                }
+                writer.write(">" + i + "</item>");
+            }
+            writer.write("</items></root>\n");
+        }
+        return file;
+    }
+
+    /**
+     * Writes a document with many namespaces: the root declares the prefixes {@code n0} to {@code n<namespaces - 1>}
+     * and each {@code entry} element and its {@code key} attribute is qualified with one of them in turn.
+     *
+     * @param file       the file to write.
+     * @param entries    the number of entries.
+     * @param namespaces the number of namespaces.
+     * @return the file.
+     * @throws IOException thrown when the file can not be written.
+     */
+    public static Path namespaceHeavy(final Path file, final int entries, final int namespaces) throws IOException {
+        try (final Writer writer = open(file)) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<root");
+            for (int n = 0; n < namespaces; n++) {
+                writer.write(" xmlns:n" + n + "=\"urn:fralax:namespace:" + n + "\"");
+            }
+            writer.write(">\n");
+            for (int i = 0; i < entries; i++) {
+                final String prefix = "n" + i % namespaces;
+                writer.write("    <" + prefix + ":entry " + prefix + ":key=\"k" + i + "\">value " + i + "</" + prefix + ":entry>\n");
+            }
+            writer.write("</root>\n");
+        }
+        return file;
+    }
+
+    private static Writer open(final Path file) throws IOException {
+        return new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 1 << 16);
+    }
+}
@@ -0,0 +1,67 @@
+package net.onenandone.fralax;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class DocumentGeneratorTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testFleet() throws Exception {
+        final XmlContext xml = Fralax.parse(DocumentGenerator.fleet(temporaryFolder.newFile().toPath(), 25, false).toString());
+        assertEquals(25, xml.selectAll("//vehicle").size());
+        assertEquals(3, xml.selectAll("//driver").size());
+        assertEquals("Vehicle 24", xml.select("//vehicle[@id='v24']/name/text()").get().asString());
+        assertEquals("5", xml.select("//vehicle[@id='v10']/seats/text()").get().asString());
+    }
+
+    @Test
+    public void testNamespacedFleet() throws Exception {
+        final XmlContext xml = Fralax.parse(DocumentGenerator.fleet(temporaryFolder.newFile().toPath(), 25, true).toString());
+        assertEquals(25, xml.selectAll("//f:vehicle").size());
+        assertEquals(3, xml.selectAll("//f:driver").size());
+    }
+
+    @Test
+    public void testDeep() throws Exception {
+        final XmlContext xml = Fralax.parse(DocumentGenerator.deep(temporaryFolder.newFile().toPath(), 4, DocumentGenerator.MAX_DEPTH).toString());
+        assertEquals(4, xml.selectAll("//level[@depth='" + DocumentGenerator.MAX_DEPTH + "']").size());
+        assertEquals(4 * DocumentGenerator.MAX_DEPTH, xml.selectAll("//level").size());
+        assertEquals("3", xml.selectAll("//level[@depth='" + DocumentGenerator.MAX_DEPTH + "']/text()").get(3).asString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDeepRejectsUnsupportedDepth() throws Exception {
+        DocumentGenerator.deep(temporaryFolder.newFile().toPath(), 1, DocumentGenerator.MAX_DEPTH + 1);
+    }
+
+    @Test
+    public void testWide() throws Exception {
+        final XmlContext xml = Fralax.parse(DocumentGenerator.wide(temporaryFolder.newFile().toPath(), 40, 4).toString());
+        assertEquals(40, xml.selectAll("//item").size());
+        assertEquals(40, xml.selectAll("//item/@a3").size());
+        assertEquals("96", xml.selectAll("//item/@a3").get(3).asString());
+    }
+
+    @Test
+    public void testNamespaceHeavy() throws Exception {
+        final XmlContext xml = Fralax.parse(DocumentGenerator.namespaceHeavy(temporaryFolder.newFile().toPath(), 100, 20).toString());
+        assertEquals(5, xml.selectAll("//n7:entry").size());
+        assertEquals("value 27", xml.select("//n7:entry[@n7:key='k27']/text()").get().asString());
+    }
+
+    @Test
+    public void testSameArgumentsProduceSameDocument() throws Exception {
+        final Path first = DocumentGenerator.fleet(temporaryFolder.newFile().toPath(), 50, true);
+        final Path second = DocumentGenerator.fleet(temporaryFolder.newFile().toPath(), 50, true);
+        assertArrayEquals(Files.readAllBytes(first), Files.readAllBytes(second));
+    }
+}
@@ -0,0 +1,108 @@
+package net.onenandone.fralax;
+
+import net.onenandone.fralax.parser.VtdHugeXmlParser;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class FralaxHugeTest {
+
+    private XmlContext xml;
+
+    @Before
+    public void setUp() throws Exception {
+        xml = Fralax.parse(FralaxTest.class.getResource("/books-qualified.xml").getFile(), VtdHugeXmlParser.class);
+    }
+
+    @Test
+    public void testCount() throws Exception {
+        final Optional<XmlContext> optionalContext = xml.select("count(/b:books/b:book)");
+        assertNotNull(optionalContext);
+        assertTrue(optionalContext.isPresent());
+
+        assertEquals("2", optionalContext.get().asString());
+    }
+
+    @Test
+    public void testSelectListOfElements() throws Exception {
+        final List<XmlContext> contexts = xml.selectAll("/b:books/b:book");
+
+        assertNotNull(contexts);
+        assertEquals(2, contexts.size());
+    }
+
+    @Test
+    public void testSelectElementWithinContext() throws Exception {
+        Optional<XmlContext> optionalContext = xml.select("/b:books/b:book[@id='bk002']");
+
+        assertNotNull(optionalContext);
+        assertTrue(optionalContext.isPresent());
+
+        optionalContext = optionalContext.get().select("b:genre/text()");
+
+        assertNotNull(optionalContext);
+        assertTrue(optionalContext.isPresent());
+        assertEquals("Poem", optionalContext.get().asString());
+    }
+
+    @Test
+    public void testSelectAttributeToString() throws Exception {
+        final Optional<XmlContext> optionalContext = xml.select("/b:books/b:book[@id='bk002']/@id");
+
+        assertNotNull(optionalContext);
+        assertTrue(optionalContext.isPresent());
+        assertEquals("bk002", optionalContext.get().asString());
+    }
+
+    @Test
+    public void testElementToString() throws Exception {
+        final Optional<XmlContext> optionalContext = xml.select("/b:books/b:book[2]");
+        assertNotNull(optionalContext);
+        assertTrue(optionalContext.isPresent());
+        assertEquals("<b:book id=\"bk002\"><b:author>Poet</b:author><b:title>The Poet's First Poem</b:title><b:genre>Poem</b:genre>" +
+                        "<b:price>24.95</b:price><b:review>Least poetic poems.</b:review></b:book>",
+                optionalContext.get().asString()
+        );
+        assertEquals("<b:book id=\"bk002\">\n" +
+                        "        <b:author>Poet</b:author>\n" +
+                        "        <b:title>The Poet's First Poem</b:title>\n" +
+                        "        <b:genre>Poem</b:genre>\n" +
+                        "        <b:price>24.95</b:price>\n" +
+                        "        <b:review>Least poetic poems.</b:review>\n" +
+                        "    </b:book>",
+                optionalContext.get().asFragment()
+        );
+    }
+
+    @Test
+    public void testSameFormattedStringAsDefaultParser() throws Exception {
+        final XmlContext standard = Fralax.parse(FralaxTest.class.getResource("/books-qualified.xml").getFile());
+
+        assertEquals(standard.asString(true), xml.asString(true));
+        assertEquals(standard.select("/b:books/b:book[1]").get().asString(true), xml.select("/b:books/b:book[1]").get().asString(true));
+    }
+
+    @Test
+    public void testSameStringAsDefaultParser() throws Exception {
+        final String file = FralaxTest.class.getResource("/driverVehicleInfo.xml").getFile();
+        final XmlContext standard = Fralax.parse(file);
+        final XmlContext huge = Fralax.parse(file, VtdHugeXmlParser.class);
+
+        assertEquals(standard.asString(), huge.asString());
+        for (final String xpath : new String[]{"//vehicle[@id='RR1']", "//vehicle[@id='RR1']/name", "/*/*[1]"}) {
+            assertEquals(xpath, standard.select(xpath).get().asString(), huge.select(xpath).get().asString());
+            assertEquals(xpath, standard.select(xpath).get().asString(true), huge.select(xpath).get().asString(true));
+        }
+        assertEquals("<vehicle id=\"RR1\"><vehicleId>1</vehicleId><name>Limousine</name></vehicle>",
+                huge.select("//vehicle[@id='RR1']").get().asString());
+    }
+
+    @Test(expected = FralaxException.class)
+    public void testSelectMultipleElementsForSingleSelect() throws Exception {
+        xml.select("/b:books/b:book");
+    }
+}
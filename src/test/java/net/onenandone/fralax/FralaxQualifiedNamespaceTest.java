@@ -3,6 +3,9 @@ package net.onenandone.fralax;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.Optional;
 
@@ -172,5 +175,31 @@ public class FralaxQualifiedNamespaceTest {
         assertEquals("<b:author>Writer</b:author>", context1.get().asString(true));
     }
 
-}
 
+    @Test
+    public void testElementToFragment() throws Exception {
+        final Optional<XmlContext> optionalContext = xml.select("/b:books/b:book[2]");
+        assertNotNull(optionalContext);
+        assertTrue(optionalContext.isPresent());
+        assertEquals("<b:book id=\"bk002\">\n" +
+                        "        <b:author>Poet</b:author>\n" +
+                        "        <b:title>The Poet's First Poem</b:title>\n" +
+                        "        <b:genre>Poem</b:genre>\n" +
+                        "        <b:price>24.95</b:price>\n" +
+                        "        <b:review>Least poetic poems.</b:review>\n" +
+                        "    </b:book>",
+                optionalContext.get().asFragment()
+        );
+    }
+
+    @Test
+    public void testDocumentToFragment() throws Exception {
+        assertEquals(new String(Files.readAllBytes(Paths.get(FralaxTest.class.getResource("/books-qualified.xml").toURI())), StandardCharsets.UTF_8),
+                xml.asFragment());
+    }
+
+    @Test
+    public void testValueToFragment() throws Exception {
+        assertEquals("bk002", xml.select("/b:books/b:book[@id='bk002']/@id").get().asFragment());
+    }
+}
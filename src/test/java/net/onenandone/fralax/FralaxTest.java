@@ -1,5 +1,7 @@
 package net.onenandone.fralax;
 
+import net.onenandone.fralax.parser.VtdXmlParser;
+import net.onenandone.fralax.parser.XPathCache;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -53,6 +55,28 @@ public class FralaxTest {
         assertEquals("Limousine", optionalContext.get().asString());
     }
 
+    @Test
+    public void testResultContextOutlivesParentAndSiblings() throws Exception {
+        XmlContext parent = Fralax.parse(FralaxTest.class.getResource("/driverVehicleInfo.xml").getFile()).select("/driverVehicleInfo").get();
+        List<XmlContext> vehicles = parent.selectAll("vehicle");
+        final XmlContext astonMartin = vehicles.get(1);
+        final String expected = astonMartin.asString();
+
+        // results used to share the navigation of the parent, which queries of the parent and the siblings moved
+        assertEquals(2, parent.selectAll("driver").size());
+        assertEquals("Bus", vehicles.get(2).select("name/text()").get().asString());
+        assertEquals("1", vehicles.get(0).select("//vehicleId/text()").get().asString());
+        assertEquals(expected, astonMartin.asString());
+        assertEquals("Aston Martin", astonMartin.select("name/text()").get().asString());
+
+        parent = null;
+        vehicles = null;
+        System.gc();
+        assertEquals(expected, astonMartin.asString());
+        assertEquals("2", astonMartin.select("/vehicleId/text()").get().asString());
+        assertEquals(1, astonMartin.selectAll("//name").size());
+    }
+
     @Test(expected = UnsupportedOperationException.class)
     public void testSubsequentSelectFromValue() throws Exception {
         //noinspection OptionalGetWithoutIsPresent
@@ -134,4 +158,35 @@ public class FralaxTest {
     public void testSelectBinaryExpression() throws Exception {
         xml.selectAll("@id='RR1'");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCompiledXPath() throws Exception {
+        final XPathCache cache = VtdXmlParser.getXPathCache();
+        final CompiledXPath vehicles = xml.compile("/driverVehicleInfo/vehicle");
+        final long hits = cache.getHits();
+
+        assertEquals(3, xml.selectAll(vehicles).size());
+        assertEquals(3, xml.selectAll(vehicles).size());
+        assertEquals("Bus", xml.select(xml.compile("/driverVehicleInfo/vehicle[@id='B1']/name/text()")).get().asString());
+        assertTrue(cache.getHits() >= hits + 3);
+    }
+
+    @Test
+    public void testCompiledXPathIsNotEvicted() throws Exception {
+        final XPathCache cache = VtdXmlParser.getXPathCache();
+        final CompiledXPath vehicles = xml.compile("/driverVehicleInfo/vehicle");
+        for (int i = 1; i <= cache.getMaximumSize() + 1; i++) {
+            xml.selectAll("/driverVehicleInfo/vehicle[" + i + "]");
+        }
+        final long misses = cache.getMisses();
+
+        assertEquals(3, xml.selectAll(vehicles).size());
+        assertEquals(misses, cache.getMisses());
+        assertEquals("Bus", xml.select("/driverVehicleInfo/vehicle[@id='B1']").get().select(xml.compile("/name/text()")).get().asString());
+    }
+
+    @Test(expected = FralaxException.class)
+    public void testCompileInvalidXPath() throws Exception {
+        xml.compile("/driverVehicleInfo/vehicle[");
+    }
+}
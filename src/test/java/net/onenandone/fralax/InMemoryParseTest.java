@@ -0,0 +1,77 @@
+package net.onenandone.fralax;
+
+import net.onenandone.fralax.parser.VtdHugeXmlParser;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+
+public class InMemoryParseTest {
+
+    private Path file;
+    private byte[] xml;
+    private String expected;
+
+    @Before
+    public void setUp() throws Exception {
+        file = Paths.get(FralaxTest.class.getResource("/driverVehicleInfo.xml").toURI());
+        xml = Files.readAllBytes(file);
+        expected = Fralax.parse(file.toString()).select("/driverVehicleInfo/driver[1]").get().asString();
+    }
+
+    @Test
+    public void testParseByteArray() throws Exception {
+        assertEquals(expected, Fralax.parse(xml).select("/driverVehicleInfo/driver[1]").get().asString());
+    }
+
+    @Test
+    public void testParseHeapByteBufferSlice() throws Exception {
+        final byte[] padded = new byte[xml.length + 20];
+        System.arraycopy(xml, 0, padded, 10, xml.length);
+        final ByteBuffer buffer = ByteBuffer.wrap(padded, 10, xml.length);
+
+        assertEquals(expected, Fralax.parse(buffer).select("/driverVehicleInfo/driver[1]").get().asString());
+        assertEquals(3, Fralax.parse(buffer).selectAll("//vehicle").size());
+        assertEquals(Fralax.parse(xml).asString(), Fralax.parse(buffer).asString());
+    }
+
+    @Test
+    public void testParseDirectByteBuffer() throws Exception {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(xml.length);
+        buffer.put(xml).flip();
+
+        assertEquals(expected, Fralax.parse(buffer).select("/driverVehicleInfo/driver[1]").get().asString());
+    }
+
+    @Test
+    public void testParseInputStream() throws Exception {
+        assertEquals(expected, Fralax.parse(new ByteArrayInputStream(xml)).select("/driverVehicleInfo/driver[1]").get().asString());
+    }
+
+    @Test
+    public void testParsePath() throws Exception {
+        assertEquals(expected, Fralax.parse(file).select("/driverVehicleInfo/driver[1]").get().asString());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testFileOnlyParser() throws Exception {
+        Fralax.parse(xml, VtdHugeXmlParser.class);
+    }
+
+    @Test
+    public void testFileOnlyParserDoesNotReadStream() throws Exception {
+        final ByteArrayInputStream stream = new ByteArrayInputStream(xml);
+        try {
+            Fralax.parse(stream, VtdHugeXmlParser.class);
+            fail("file-only parser accepted a stream");
+        } catch (final UnsupportedOperationException e) {
+            assertEquals(xml.length, stream.available());
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package net.onenandone.fralax;
+
+import net.onenandone.fralax.parser.IndexedVtdXmlParser;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import static org.junit.Assert.*;
+
+public class IndexedParserTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private File sidecar;
+
+    @Before
+    public void setUp() throws Exception {
+        file = folder.newFile("books.xml");
+        Files.copy(Paths.get(FralaxTest.class.getResource("/books-unqualified.xml").toURI()), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        sidecar = new File(file.getPath() + IndexedVtdXmlParser.SIDECAR_EXTENSION);
+    }
+
+    @Test
+    public void testSidecarIsWrittenAndLoaded() throws Exception {
+        assertFalse(sidecar.exists());
+        final XmlContext parsed = Fralax.parse(file.getPath(), IndexedVtdXmlParser.class);
+        assertTrue(sidecar.exists());
+        final long sidecarModification = sidecar.lastModified();
+
+        final XmlContext loaded = Fralax.parse(file.getPath(), IndexedVtdXmlParser.class);
+        assertEquals(sidecarModification, sidecar.lastModified());
+        assertEquals(parsed.asString(), loaded.asString());
+        assertEquals(2, loaded.selectAll("/b:books/book").size());
+        assertEquals("Poem", loaded.select("/b:books/book[@id='bk002']/genre/text()").get().asString());
+    }
+
+    @Test
+    public void testStaleSidecarIsReplaced() throws Exception {
+        Fralax.parse(file.getPath(), IndexedVtdXmlParser.class);
+
+        Files.write(file.toPath(), "<b:books xmlns:b=\"urn:books:unqualified\"><book id=\"bk003\"/></b:books>".getBytes(StandardCharsets.UTF_8));
+        assertTrue(file.setLastModified(file.lastModified() + 2000));
+
+        final XmlContext changed = Fralax.parse(file.getPath(), IndexedVtdXmlParser.class);
+        assertEquals(1, changed.selectAll("/b:books/book").size());
+        assertEquals(1, Fralax.parse(file.getPath(), IndexedVtdXmlParser.class).selectAll("/b:books/book").size());
+    }
+
+    @Test
+    public void testSidecarOfEditWithinSameModificationTimeIsReplaced() throws Exception {
+        final long lastModified = file.lastModified();
+        Fralax.parse(file.getPath(), IndexedVtdXmlParser.class);
+
+        final String books = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        Files.write(file.toPath(), books.replace("bk002", "bk009").getBytes(StandardCharsets.UTF_8));
+        assertTrue(file.setLastModified(lastModified));
+
+        final XmlContext changed = Fralax.parse(file.getPath(), IndexedVtdXmlParser.class);
+        assertTrue(changed.exists("/b:books/book[@id='bk009']"));
+        assertFalse(changed.exists("/b:books/book[@id='bk002']"));
+    }
+
+    @Test
+    public void testBrokenSidecarIsIgnored() throws Exception {
+        Files.write(sidecar.toPath(), "broken".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(2, Fralax.parse(file.getPath(), IndexedVtdXmlParser.class).selectAll("/b:books/book").size());
+        assertEquals(2, Fralax.parse(file.getPath(), IndexedVtdXmlParser.class).selectAll("/b:books/book").size());
+    }
+}
@@ -1,13 +1,20 @@
 package net.onenandone.fralax;
 
 import net.onenandone.fralax.parser.VtdXmlParser;
+import org.junit.AfterClass;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -18,6 +25,9 @@ import static org.junit.Assert.*;
  */
 public class ManagedXMLTest  {
 
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private static ManagedXmlContext xmlParser;
     private static XmlContext xml;
 
@@ -27,6 +37,11 @@ public class ManagedXMLTest  {
         xml = xmlParser.unmanaged();
     }
 
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        xmlParser.close();
+    }
+
     @Test
     public void testManagement() throws Exception {
         assertEquals(xml.selectAll("//driver").size(), xmlParser.selectAll("//driver").size());
@@ -66,12 +81,69 @@ public class ManagedXMLTest  {
                 "    <vehicleId>1</vehicleId>\n" +
                 "    <name>Limousine</name>\n" +
                 "</vehicle>", oneVehicle.get().asString(true));
-        //Now check if change happens when we call getRootContext
+        //Now wait for the watcher to reload the file in the background
+        final long deadline = System.currentTimeMillis() + 10000;
         Optional<XmlContext> newContext = xmlParser.select("//vehicle[@id='RR1']");
+        while (newContext.isPresent() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            newContext = xmlParser.select("//vehicle[@id='RR1']");
+        }
         //same xpath but now we updated so it isn't present anymore.
         assertFalse(newContext.isPresent());
     }
 
+    @Test
+    public void testReload() throws Exception {
+        final File file = temporaryFolder.newFile("reload.xml");
+        Files.write(file.toPath(), "<root><a>1</a></root>".getBytes(StandardCharsets.UTF_8));
+        final ManagedXmlContext managed = Fralax.watch(file.getPath(), VtdXmlParser.class);
+        managed.close(); // stop the watcher, changes are only picked up by reload now
+        Files.write(file.toPath(), "<root><a>2</a></root>".getBytes(StandardCharsets.UTF_8));
+        assertEquals("1", managed.select("/root/a/text()").get().asString());
+        assertEquals(1, managed.getVersion());
+
+        managed.reload();
+        assertEquals("2", managed.select("/root/a/text()").get().asString());
+        assertEquals(2, managed.getVersion());
+    }
+
+    @Test
+    public void testDebouncedReload() throws Exception {
+        final File file = temporaryFolder.newFile("debounced.xml");
+        Files.write(file.toPath(), "<root><a>1</a></root>".getBytes(StandardCharsets.UTF_8));
+        try (final ManagedXmlContext managed = Fralax.watch(file.getPath(), VtdXmlParser.class, 500, TimeUnit.MILLISECONDS)) {
+            Thread.sleep(100); // give the watcher time to start
+            // a half written file followed by the complete one within the debounce delay
+            Files.write(file.toPath(), "<root><a>2</a>".getBytes(StandardCharsets.UTF_8));
+            Files.write(file.toPath(), "<root><a>2</a></root>".getBytes(StandardCharsets.UTF_8));
+
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (managed.getVersion() == 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals("2", managed.select("/root/a/text()").get().asString());
+            assertEquals(2, managed.getVersion());
+            assertFalse(managed.getReloadFailure().isPresent());
+        }
+    }
+
+    @Test
+    public void testFailedReloadKeepsPreviousVersion() throws Exception {
+        final File file = temporaryFolder.newFile("broken.xml");
+        Files.write(file.toPath(), "<root><a>1</a></root>".getBytes(StandardCharsets.UTF_8));
+        final ManagedXmlContext managed = Fralax.watch(file.getPath(), VtdXmlParser.class);
+        managed.close(); // stop the watcher, changes are only picked up by reload now
+        Files.write(file.toPath(), "<root><a>2</a>".getBytes(StandardCharsets.UTF_8));
+        try {
+            managed.reload();
+            fail();
+        } catch (final FralaxException e) {
+            assertSame(e, managed.getReloadFailure().get());
+        }
+        assertEquals("1", managed.select("/root/a/text()").get().asString());
+        assertEquals(1, managed.getVersion());
+    }
+
     @Test
     public void testCount() throws Exception {
         final Optional<XmlContext> optionalContext = xml.select("count(/driverVehicleInfo/vehicle)");
@@ -0,0 +1,127 @@
+package net.onenandone.fralax;
+
+import net.onenandone.fralax.parser.VtdHugeXmlParser;
+import net.onenandone.fralax.parser.VtdXmlParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+    private static final String FILE = FralaxTest.class.getResource("/driverVehicleInfo.xml").getFile();
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final HistogramMetrics metrics = new HistogramMetrics();
+
+    @Before
+    public void setUp() {
+        Fralax.setMetrics(metrics);
+    }
+
+    @After
+    public void tearDown() {
+        Fralax.setMetrics(FralaxMetrics.NOOP);
+    }
+
+    @Test
+    public void testHistogram() {
+        final Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getPercentile(50));
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        histogram.record(-1);
+        assertEquals(101, histogram.getCount());
+        assertEquals(5050, histogram.getSum());
+        assertEquals(100, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(0));
+        assertEquals(63, histogram.getPercentile(50));
+        assertEquals(100, histogram.getPercentile(99));
+        assertEquals(100, histogram.getPercentile(100));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    public void testParseQueryAndSerialization() throws Exception {
+        final File file = DocumentGenerator.fleet(temporaryFolder.newFile("fleet.xml").toPath(), 5, false).toFile();
+        final XmlContext xml = Fralax.parse(file.getPath());
+        assertEquals(1, metrics.getParseNanos().getCount());
+        assertEquals(file.length(), metrics.getParseBytes().getMax());
+        assertTrue(metrics.getParseTokens().getMax() > 0);
+
+        metrics.reset();
+        assertEquals(5, xml.selectAll("//vehicle").size());
+        assertTrue(xml.select("//vehicle[@id='v1']").isPresent());
+        assertEquals(2, metrics.getQueryNanos().getCount());
+        assertEquals(5, metrics.getQueryResults().getMax());
+
+        final String vehicle = xml.select("//vehicle[@id='v1']").get().asString(true);
+        assertEquals(1, metrics.getSerializationNanos().getCount());
+        assertEquals(vehicle.length(), metrics.getSerializationCharacters().getMax());
+    }
+
+    @Test
+    public void testInMemoryParse() {
+        final byte[] xml = "<root><a>1</a></root>".getBytes(StandardCharsets.UTF_8);
+        Fralax.parse(xml);
+        assertEquals(xml.length, metrics.getParseBytes().getMax());
+    }
+
+    @Test
+    public void testHugeParser() {
+        final XmlContext xml = Fralax.parse(FILE, VtdHugeXmlParser.class);
+        assertEquals(new File(FILE).length(), metrics.getParseBytes().getMax());
+        metrics.reset();
+        xml.selectAll("//vehicle").get(0).asString(true);
+        assertEquals(1, metrics.getQueryNanos().getCount());
+        assertEquals(1, metrics.getSerializationNanos().getCount());
+    }
+
+    @Test
+    public void testCustomMetrics() {
+        final List<String> xpaths = new ArrayList<>();
+        Fralax.setMetrics(new FralaxMetrics() {
+            @Override
+            public void queried(final String xpath, final long nanos, final int results) {
+                xpaths.add(xpath + "=" + results);
+            }
+        });
+        Fralax.parse(FILE).selectAll("//driver");
+        assertEquals(1, xpaths.size());
+        assertTrue(xpaths.get(0).startsWith("//driver="));
+    }
+
+    @Test
+    public void testReloads() throws Exception {
+        final File file = temporaryFolder.newFile("reload.xml");
+        Files.write(file.toPath(), "<root><a>1</a></root>".getBytes(StandardCharsets.UTF_8));
+        try (final FralaxWatchRegistry registry = new FralaxWatchRegistry(1, 0, TimeUnit.MILLISECONDS);
+             final ManagedXmlContext xml = registry.register(file.getPath(), VtdXmlParser.class)) {
+            xml.reload();
+            Files.write(file.toPath(), "<root><a>".getBytes(StandardCharsets.UTF_8));
+            try {
+                xml.reload();
+                fail("the broken file should not have been parsed");
+            } catch (final FralaxException e) {
+                // expected
+            }
+        }
+        assertTrue(metrics.getReloadNanos().getCount() >= 2);
+        assertTrue(metrics.getReloadFailures() >= 1);
+    }
+}
@@ -0,0 +1,75 @@
+package net.onenandone.fralax;
+
+import net.onenandone.fralax.parser.VtdHugeXmlParser;
+import net.onenandone.fralax.parser.VtdXmlParser;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs the tests of a subclass once with each bundled parser. The documents of a test class are written once and parsed
+ * by each parser again.
+ */
+@RunWith(Parameterized.class)
+public abstract class ParserTestBase {
+
+    private static final Map<String, Path> DOCUMENTS = new HashMap<>();
+
+    private final Class<? extends XmlParser> xmlParserClass;
+
+    protected ParserTestBase(final Class<? extends XmlParser> xmlParserClass) {
+        this.xmlParserClass = xmlParserClass;
+    }
+
+    @Parameterized.Parameters
+    public static Collection<Object[]> parsers() {
+        return Arrays.asList(new Object[]{VtdXmlParser.class}, new Object[]{VtdHugeXmlParser.class});
+    }
+
+    /**
+     * @param name the name of the document, unique within the test class.
+     * @param xml  the document.
+     * @return the document parsed by the parser of the current run.
+     * @throws IOException thrown when the document can not be written.
+     */
+    protected XmlContext parse(final String name, final String xml) throws IOException {
+        return parse(name, file -> Files.write(file, xml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * @param name   the name of the document, unique within the test class.
+     * @param writer writes the document to the passed file, e.g. one of the {@link DocumentGenerator}.
+     * @return the document parsed by the parser of the current run.
+     * @throws IOException thrown when the document can not be written.
+     */
+    protected XmlContext parse(final String name, final DocumentWriter writer) throws IOException {
+        return Fralax.parse(document(getClass().getName() + '/' + name, writer).toString(), xmlParserClass);
+    }
+
+    private static synchronized Path document(final String key, final DocumentWriter writer) throws IOException {
+        Path file = DOCUMENTS.get(key);
+        if (file == null) {
+            file = Files.createTempFile("fralax", ".xml");
+            file.toFile().deleteOnExit();
+            writer.write(file);
+            DOCUMENTS.put(key, file);
+        }
+        return file;
+    }
+
+    /**
+     * Writes a document to a file.
+     */
+    @FunctionalInterface
+    protected interface DocumentWriter {
+        void write(Path file) throws IOException;
+    }
+}
@@ -0,0 +1,93 @@
+package net.onenandone.fralax;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class QueryProfilerTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        Fralax.setMetrics(FralaxMetrics.NOOP);
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals("//vehicle[@id=?][?]", QueryProfiler.normalize("//vehicle[ @id = \"RR1\" ][1]"));
+        assertEquals("//vehicle[@id=?]", QueryProfiler.normalize("//vehicle[@id='AM1']"));
+        assertEquals("//n7:entry[@n7:key=?]", QueryProfiler.normalize("//n7:entry[@n7:key='k7']"));
+        assertEquals("//item[@a0>? and @a1<?]", QueryProfiler.normalize("//item[@a0 > 10 and @a1 < 2.5]"));
+        assertEquals("count(//vehicle)", QueryProfiler.normalize("count(//vehicle)"));
+    }
+
+    @Test
+    public void testProfile() throws Exception {
+        final XmlContext xml = Fralax.parse(DocumentGenerator.fleet(temporaryFolder.newFile("fleet.xml").toPath(), 20, false).toString());
+        final HistogramMetrics histogramMetrics = new HistogramMetrics();
+        final QueryProfiler profiler = new QueryProfiler(Long.MAX_VALUE, TimeUnit.NANOSECONDS, histogramMetrics);
+        Fralax.setMetrics(profiler);
+
+        for (int i = 0; i < 20; i++) {
+            assertTrue(xml.select("//vehicle[@id='v" + i + "']").isPresent());
+        }
+        assertEquals(20, xml.selectAll("/fleet/vehicle").size());
+
+        final List<QueryProfiler.ExpressionStatistics> snapshot = profiler.snapshot();
+        assertEquals(2, snapshot.size());
+        final QueryProfiler.ExpressionStatistics byId = snapshot.stream().filter(s -> s.getXPath().equals("//vehicle[@id=?]")).findFirst().get();
+        assertEquals(20, byId.getCount());
+        assertEquals(20, byId.getResults());
+        assertTrue(byId.getMaxNanos() > 0);
+        assertTrue(snapshot.get(0).getTotalNanos() >= snapshot.get(1).getTotalNanos());
+        assertTrue(profiler.report().contains("//vehicle[@id=?]"));
+        assertEquals(21, histogramMetrics.getQueryNanos().getCount());
+
+        profiler.reset();
+        assertTrue(profiler.snapshot().isEmpty());
+    }
+
+    @Test
+    public void testSlowQueriesAreLogged() throws Exception {
+        final XmlContext xml = Fralax.parse(DocumentGenerator.fleet(temporaryFolder.newFile("fleet.xml").toPath(), 5, false).toString());
+        final List<String> messages = new ArrayList<>();
+        final Handler handler = new Handler() {
+            @Override
+            public void publish(final LogRecord record) {
+                messages.add(record.getMessage());
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        final Logger logger = Logger.getLogger(QueryProfiler.class.getName());
+        logger.addHandler(handler);
+        try {
+            Fralax.setMetrics(new QueryProfiler(0, TimeUnit.MILLISECONDS));
+            xml.selectAll("//vehicle[@id='v3']");
+            Fralax.setMetrics(new QueryProfiler(1, TimeUnit.HOURS));
+            xml.selectAll("//driver");
+        } finally {
+            logger.removeHandler(handler);
+        }
+        assertEquals(1, messages.size());
+        assertTrue(messages.get(0).contains("//vehicle[@id='v3']"));
+    }
+}
@@ -0,0 +1,79 @@
+package net.onenandone.fralax;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RelativeSelectTest extends ParserTestBase {
+
+    private final XmlContext fleetXml;
+    private final XmlContext deepXml;
+
+    public RelativeSelectTest(final Class<? extends XmlParser> xmlParserClass) throws Exception {
+        super(xmlParserClass);
+        this.fleetXml = parse("fleet.xml", file -> DocumentGenerator.fleet(file, 50, false));
+        this.deepXml = parse("deep.xml", file -> DocumentGenerator.deep(file, 3, 20));
+    }
+
+    @Test
+    public void testChildrenOfEachResult() {
+        final List<XmlContext> vehicles = fleetXml.selectAll("//vehicle");
+        assertEquals(50, vehicles.size());
+        for (int i = 0; i < vehicles.size(); i++) {
+            final XmlContext vehicle = vehicles.get(i);
+            assertEquals(1, vehicle.selectAll("/name").size());
+            assertEquals("Vehicle " + i, vehicle.select("/name/text()").get().asString());
+            assertEquals("Vehicle " + i, vehicle.select("name/text()").get().asString());
+            assertEquals("Vehicle " + i, vehicle.select("//name/text()").get().asString());
+            assertEquals("v" + i, vehicle.select("@id").get().asString());
+        }
+    }
+
+    @Test
+    public void testDescendantsOfResult() {
+        final List<XmlContext> chains = deepXml.selectAll("/root/chains/level");
+        assertEquals(3, chains.size());
+        final XmlContext second = chains.get(1);
+        assertEquals(19, second.selectAll("//level").size());
+        assertEquals("1", second.select("//level[@depth='20']/text()").get().asString());
+        final XmlContext middle = second.select("//level[@depth='10']").get();
+        assertEquals(10, middle.selectAll("//level").size());
+        assertEquals("1", middle.select("//level[@depth='20']/text()").get().asString());
+        assertFalse(middle.select("//level[@depth='5']").isPresent());
+    }
+
+    @Test
+    public void testRootContextIsAbsolute() {
+        assertEquals(50, fleetXml.selectAll("/fleet/vehicle").size());
+        assertEquals(50, fleetXml.selectAll("//vehicle").size());
+        assertEquals(5, fleetXml.selectAll("driver").size());
+    }
+
+    @Test
+    public void testSelectFromRootElement() {
+        final XmlContext fleet = fleetXml.select("/fleet").get();
+        assertEquals(50, fleet.selectAll("/vehicle").size());
+        assertEquals(50, fleet.selectAll("//vehicle").size());
+        assertEquals("Vehicle 3", fleet.select("/vehicle[@id='v3']/name/text()").get().asString());
+        assertFalse(fleet.select("/fleet").isPresent());
+    }
+
+    @Test
+    public void testUnionsAndFunctionsAreAnchored() {
+        final XmlContext vehicle = fleetXml.select("//vehicle[@id='v3']").get();
+        assertEquals(2, vehicle.selectAll("/name | /seats").size());
+        assertEquals(2, vehicle.selectAll("//name|//seats").size());
+        assertEquals("1", vehicle.select("count(//name)").get().asString());
+        assertEquals("2", vehicle.select("count(/*)").get().asString());
+        assertEquals("Vehicle 3", vehicle.select("(//name)[1]/text()").get().asString());
+        assertEquals("Vehicle 3", vehicle.select("/name[. = 'Vehicle 3' or . = '/x']/text()").get().asString());
+        assertEquals("1", vehicle.select("count(/)").get().asString());
+    }
+
+    @Test(expected = FralaxException.class)
+    public void testAbsolutePathInPredicateOfSelectionIsRejected() {
+        fleetXml.select("//vehicle[@id='v3']").get().selectAll("/name[//seats]");
+    }
+}
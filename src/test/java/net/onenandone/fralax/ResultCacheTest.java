@@ -0,0 +1,107 @@
+package net.onenandone.fralax;
+
+import net.onenandone.fralax.parser.VtdXmlParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ResultCacheTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static XmlContext parse() {
+        return Fralax.parse(FralaxTest.class.getResource("/driverVehicleInfo.xml").getFile());
+    }
+
+    @Test
+    public void testResultsAreNotCachedByDefault() throws Exception {
+        final XmlContext xml = parse();
+        assertNotSame(xml.select("//vehicle[@id='RR1']").get(), xml.select("//vehicle[@id='RR1']").get());
+    }
+
+    @Test
+    public void testCachedResults() throws Exception {
+        final XmlContext xml = parse().enableResultCache(16);
+        final XmlContext vehicle = xml.select("//vehicle[@id='RR1']").get();
+        assertSame(vehicle, xml.select("//vehicle[@id='RR1']").get());
+        assertSame(vehicle, xml.stream("//vehicle[@id='RR1']").findFirst().get());
+        assertEquals("1", vehicle.select("vehicleId/text()").get().asString());
+        assertEquals("3", xml.select("count(//vehicle)").get().asString());
+        assertEquals("3", xml.select("count(//vehicle)").get().asString());
+    }
+
+    @Test
+    public void testCachedResultsCanBeModifiedByCaller() throws Exception {
+        final XmlContext xml = parse().enableResultCache(16);
+        final List<XmlContext> vehicles = xml.selectAll("//vehicle");
+        vehicles.clear();
+        assertEquals(3, xml.selectAll("//vehicle").size());
+    }
+
+    @Test
+    public void testResultsAreCachedPerContext() throws Exception {
+        final XmlContext xml = parse().enableResultCache(16);
+        final List<XmlContext> vehicles = xml.selectAll("//vehicle");
+        assertEquals("RR1", vehicles.get(0).select("@id").get().asString());
+        assertEquals("AM1", vehicles.get(1).select("@id").get().asString());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        final XmlContext xml = parse().enableResultCache(1);
+        final XmlContext vehicle = xml.select("//vehicle[@id='RR1']").get();
+        xml.select("//vehicle[@id='AM1']");
+        assertNotSame(vehicle, xml.select("//vehicle[@id='RR1']").get());
+    }
+
+    @Test
+    public void testEnablingAgainKeepsCachedResults() throws Exception {
+        final XmlContext xml = parse().enableResultCache(16);
+        final XmlContext vehicle = xml.select("//vehicle[@id='RR1']").get();
+        xml.select("//vehicle[@id='RR1']").get().enableResultCache(16);
+        assertSame(vehicle, xml.select("//vehicle[@id='RR1']").get());
+    }
+
+    @Test
+    public void testShrinkingEvictsLeastRecentlyUsedResults() throws Exception {
+        final XmlContext xml = parse().enableResultCache(16);
+        final XmlContext rr1 = xml.select("//vehicle[@id='RR1']").get();
+        final XmlContext am1 = xml.select("//vehicle[@id='AM1']").get();
+        xml.enableResultCache(1);
+        assertSame(am1, xml.select("//vehicle[@id='AM1']").get());
+        assertNotSame(rr1, xml.select("//vehicle[@id='RR1']").get());
+    }
+
+    @Test
+    public void testDisable() throws Exception {
+        final XmlContext xml = parse().enableResultCache(16);
+        final XmlContext vehicle = xml.select("//vehicle[@id='RR1']").get();
+        xml.enableResultCache(0);
+        assertNotSame(vehicle, xml.select("//vehicle[@id='RR1']").get());
+    }
+
+    @Test
+    public void testReloadInvalidatesCache() throws Exception {
+        final File file = temporaryFolder.newFile("cached.xml");
+        Files.write(file.toPath(), "<root><a>1</a></root>".getBytes(StandardCharsets.UTF_8));
+        final ManagedXmlContext managed = Fralax.watch(file.getPath(), VtdXmlParser.class);
+        managed.close(); // stop the watcher, changes are only picked up by reload now
+        managed.enableResultCache(16);
+        final XmlContext first = managed.select("/root/a").get();
+        assertSame(first, managed.select("/root/a").get());
+
+        Files.write(file.toPath(), "<root><a>2</a></root>".getBytes(StandardCharsets.UTF_8));
+        managed.reload();
+        final XmlContext second = managed.select("/root/a").get();
+        assertEquals("<a>2</a>", second.asString());
+        assertSame(second, managed.select("/root/a").get());
+    }
+}
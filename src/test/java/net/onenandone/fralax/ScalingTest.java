@@ -0,0 +1,118 @@
+package net.onenandone.fralax;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that parsing, selecting and transforming to string grow near-linearly with the size of the document, by comparing
+ * the fastest of several runs on a document with the one on a document {@link #GROWTH} times as large. The tolerance is
+ * generous to cope with noisy build machines, a quadratic path would still exceed it by far. As timings and the retained
+ * memory depend on the machine, the test is excluded from the default test task and run with {@code gradle scalingTest}.
+ */
+public class ScalingTest {
+
+    private static final int SMALL = 20000;
+    private static final int GROWTH = 8;
+    private static final double TOLERANCE = 3;
+    private static final long MINIMUM_NANOS = 1000000;
+    private static final int RUNS = 3;
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testFleet() throws Exception {
+        final Path small = DocumentGenerator.fleet(temporaryFolder.newFile().toPath(), SMALL, false);
+        final Path large = DocumentGenerator.fleet(temporaryFolder.newFile().toPath(), SMALL * GROWTH, false);
+        assertNearLinear("parse", () -> Fralax.parse(small.toString()), () -> Fralax.parse(large.toString()));
+
+        final XmlContext smallXml = Fralax.parse(small.toString());
+        final XmlContext largeXml = Fralax.parse(large.toString());
+        assertNearLinear("selectAll", () -> smallXml.selectAll("//vehicle"), () -> largeXml.selectAll("//vehicle"));
+        assertNearLinear("selectAll with predicate", () -> smallXml.selectAll("//vehicle[seats > 5]/name/text()"),
+                () -> largeXml.selectAll("//vehicle[seats > 5]/name/text()"));
+        assertNearLinear("asString", smallXml::asString, largeXml::asString);
+    }
+
+    @Test
+    public void testWide() throws Exception {
+        final XmlContext small = Fralax.parse(DocumentGenerator.wide(temporaryFolder.newFile().toPath(), SMALL, 4).toString());
+        final XmlContext large = Fralax.parse(DocumentGenerator.wide(temporaryFolder.newFile().toPath(), SMALL * GROWTH, 4).toString());
+        final XmlContext smallItems = small.select("/root/items").get();
+        final XmlContext largeItems = large.select("/root/items").get();
+
+        assertNearLinear("asString of a wide element", () -> smallItems.asString(false), () -> largeItems.asString(false));
+        assertNearLinear("formatted asString of a wide element", () -> smallItems.asString(true), () -> largeItems.asString(true));
+        assertNearLinear("selectAll of attributes", () -> small.selectAll("//item/@a3"), () -> large.selectAll("//item/@a3"));
+    }
+
+    @Test
+    public void testDeep() throws Exception {
+        final int chains = SMALL / DocumentGenerator.MAX_DEPTH;
+        final XmlContext small = Fralax.parse(DocumentGenerator.deep(temporaryFolder.newFile().toPath(), chains, DocumentGenerator.MAX_DEPTH).toString());
+        final XmlContext large = Fralax.parse(DocumentGenerator.deep(temporaryFolder.newFile().toPath(), chains * GROWTH, DocumentGenerator.MAX_DEPTH).toString());
+        final XmlContext smallChains = small.select("/root/chains").get();
+        final XmlContext largeChains = large.select("/root/chains").get();
+
+        assertNearLinear("asString of deep chains", () -> smallChains.asString(false), () -> largeChains.asString(false));
+        assertNearLinear("selectAll of deepest levels", () -> small.selectAll("//level[@depth='200']"), () -> large.selectAll("//level[@depth='200']"));
+    }
+
+    @Test
+    public void testNamespaceHeavy() throws Exception {
+        final Path small = DocumentGenerator.namespaceHeavy(temporaryFolder.newFile().toPath(), SMALL, 20);
+        final Path large = DocumentGenerator.namespaceHeavy(temporaryFolder.newFile().toPath(), SMALL * GROWTH, 20);
+        assertNearLinear("parse", () -> Fralax.parse(small.toString()), () -> Fralax.parse(large.toString()));
+
+        final XmlContext smallXml = Fralax.parse(small.toString());
+        final XmlContext largeXml = Fralax.parse(large.toString());
+        assertNearLinear("selectAll of qualified elements", () -> smallXml.selectAll("//n7:entry/@n7:key"), () -> largeXml.selectAll("//n7:entry/@n7:key"));
+    }
+
+    @Test
+    public void testMemoryBudget() throws Exception {
+        final Path file = DocumentGenerator.fleet(temporaryFolder.newFile().toPath(), SMALL * GROWTH, false);
+        final long before = usedMemory();
+        final XmlContext xml = Fralax.parse(file.toString());
+        final long retained = usedMemory() - before;
+
+        // the document itself plus the VTD index, which takes 8 bytes per token and a fraction of that for location caches
+        final long budget = 3 * Files.size(file);
+        assertTrue("parsed document retains " + retained + " bytes, budget is " + budget, retained < budget);
+        assertTrue(xml.exists("//vehicle")); // keeps the document reachable until its memory has been measured
+    }
+
+    private static void assertNearLinear(final String operation, final Supplier<?> small, final Supplier<?> large) {
+        final long smallNanos = Math.max(fastest(small), MINIMUM_NANOS);
+        final long largeNanos = fastest(large);
+        final double ratio = (double) largeNanos / smallNanos;
+        assertTrue(operation + " took " + ratio + " times as long on a " + GROWTH + " times larger document", ratio < GROWTH * TOLERANCE);
+    }
+
+    private static long fastest(final Supplier<?> operation) {
+        assertNotNull(operation.get()); // warm up
+        long fastest = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            final long start = System.nanoTime();
+            assertNotNull(operation.get());
+            fastest = Math.min(fastest, System.nanoTime() - start);
+        }
+        return fastest;
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,99 @@
+package net.onenandone.fralax;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class StreamTest {
+
+    private XmlContext xml;
+
+    @Before
+    public void setUp() throws Exception {
+        xml = Fralax.parse(FralaxTest.class.getResource("/books-unqualified.xml").getFile());
+    }
+
+    @Test
+    public void testStreamSameAsSelectAll() throws Exception {
+        final List<String> expected = xml.selectAll("//book").stream().map(XmlContext::asString).collect(Collectors.toList());
+
+        assertEquals(expected, xml.stream("//book").map(XmlContext::asString).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testStreamShortCircuits() throws Exception {
+        assertEquals("bk002", xml.stream("//book/@id").filter(id -> id.asString().endsWith("2")).findFirst().get().asString());
+        assertTrue(xml.stream("//book").anyMatch(book -> book.select("genre/text()").get().asString().equals("Fiction")));
+        assertEquals(1, xml.stream("//book").limit(1).count());
+    }
+
+    @Test
+    public void testIteratorEvaluatesLazily() throws Exception {
+        final byte[] document = "<r><e v=\"a\">1</e><e v=\"a\">2</e><e v=\"a\">3</e></r>".getBytes(StandardCharsets.UTF_8);
+        final Iterator<XmlContext> iterator = Fralax.parse(document).iterator("//e[@v='a']/text()");
+        assertEquals("1", iterator.next().asString());
+
+        unmatch(document, 3);
+        assertEquals("2", iterator.next().asString());
+        assertFalse("the third element was matched before the iteration reached it", iterator.hasNext());
+    }
+
+    @Test
+    public void testStreamEvaluatesLazily() throws Exception {
+        final byte[] document = "<r><e v=\"a\">1</e><e v=\"a\">2</e><e v=\"a\">3</e></r>".getBytes(StandardCharsets.UTF_8);
+        final XmlContext first = Fralax.parse(document).stream("//e[@v='a']/text()").filter(result -> {
+            if (result.asString().equals("1")) {
+                unmatch(document, 2);
+                return false;
+            }
+            return true;
+        }).findFirst().get();
+
+        assertEquals("the second element was matched before the stream reached it", "3", first.asString());
+    }
+
+    /**
+     * Changes the attribute value of an element from {@code a} to {@code b}. The document is tokenized in place, so the
+     * change is seen by all evaluation steps that follow, while results evaluated before are not affected.
+     */
+    private static void unmatch(final byte[] document, final int element) {
+        int position = -1;
+        for (int i = 0; i < element; i++) {
+            position = new String(document, StandardCharsets.UTF_8).indexOf("v=\"a\"", position + 1);
+        }
+        document[position + 3] = 'b';
+    }
+
+    @Test
+    public void testStreamFunction() throws Exception {
+        assertEquals("2", xml.stream("count(//book)").findFirst().get().asString());
+    }
+
+    @Test
+    public void testIterator() throws Exception {
+        final Iterator<XmlContext> iterator = xml.iterator("//book/genre/text()");
+        assertTrue(iterator.hasNext());
+        assertTrue(iterator.hasNext());
+        assertEquals("Fiction", iterator.next().asString());
+        assertEquals("Poem", iterator.next().asString());
+        assertFalse(iterator.hasNext());
+        try {
+            iterator.next();
+            fail();
+        } catch (final NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = FralaxException.class)
+    public void testStreamInvalidXPath() throws Exception {
+        xml.stream("//book[");
+    }
+}
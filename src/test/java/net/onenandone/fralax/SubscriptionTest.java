@@ -0,0 +1,100 @@
+package net.onenandone.fralax;
+
+import net.onenandone.fralax.parser.VtdXmlParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class SubscriptionTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File file;
+    private ManagedXmlContext managed;
+
+    @Before
+    public void setUp() throws Exception {
+        file = temporaryFolder.newFile("flags.xml");
+        write("<config><flag name=\"a\">on</flag><route>r1</route></config>");
+        managed = Fralax.watch(file.getPath(), VtdXmlParser.class);
+        managed.close(); // reloads are triggered explicitly
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        managed.close();
+    }
+
+    @Test
+    public void testNotifiesOnlyOnChangedResult() throws Exception {
+        final List<List<String>> flagChanges = new ArrayList<>();
+        final List<List<String>> routeChanges = new ArrayList<>();
+        managed.subscribe("//flag/text()", result -> flagChanges.add(values(result)));
+        managed.subscribe("//route", result -> routeChanges.add(values(result)));
+
+        write("<config><flag name=\"a\">on</flag><route>r2</route></config>");
+        managed.reload();
+        assertEquals(0, flagChanges.size());
+        assertEquals(1, routeChanges.size());
+        assertEquals("<route>r2</route>", routeChanges.get(0).get(0));
+
+        write("<config>  <flag name=\"a\">off</flag><route>r2</route></config>");
+        managed.reload();
+        assertEquals(1, flagChanges.size());
+        assertEquals("off", flagChanges.get(0).get(0));
+        assertEquals(1, routeChanges.size());
+
+        write("<config><flag name=\"a\">off</flag><route>r2</route><route>r3</route></config>");
+        managed.reload();
+        assertEquals(1, flagChanges.size());
+        assertEquals(2, routeChanges.size());
+        assertEquals(2, routeChanges.get(1).size());
+    }
+
+    @Test
+    public void testClosedSubscriptionIsNotNotified() throws Exception {
+        final List<List<String>> changes = new ArrayList<>();
+        final XPathSubscription subscription = managed.subscribe("//route/text()", result -> changes.add(values(result)));
+        assertEquals("//route/text()", subscription.getXPath());
+        subscription.close();
+
+        write("<config><flag name=\"a\">on</flag><route>r2</route></config>");
+        managed.reload();
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void testFailingListenerDoesNotFailReload() throws Exception {
+        managed.subscribe("//route/text()", result -> {
+            throw new IllegalStateException("listener failed");
+        });
+        write("<config><flag name=\"a\">on</flag><route>r2</route></config>");
+        managed.reload();
+        assertEquals(2, managed.getVersion());
+    }
+
+    @Test(expected = FralaxException.class)
+    public void testSubscribeInvalidXPath() throws Exception {
+        managed.subscribe("//route[", result -> fail());
+    }
+
+    private void write(final String xml) throws Exception {
+        Files.write(file.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> values(final List<XmlContext> result) {
+        return result.stream().map(XmlContext::asFragment).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,101 @@
+package net.onenandone.fralax;
+
+import org.junit.Test;
+
+import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+
+import static org.junit.Assert.*;
+
+public class TypedValueTest extends ParserTestBase {
+
+    private static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<prices>\n" +
+            "    <price id=\"p1\" amount=\"12\" big=\"9000000000\" rate=\"0.25\" active=\"true\">  42 </price>\n" +
+            "    <price id=\"p2\" amount=\"-3\" active=\"0\">n/a</price>\n" +
+            "    <empty/>\n" +
+            "    <blank></blank>\n" +
+            "    <number>5</number>\n" +
+            "</prices>\n";
+
+    private final XmlContext xml;
+
+    public TypedValueTest(final Class<? extends XmlParser> xmlParserClass) throws Exception {
+        super(xmlParserClass);
+        this.xml = parse("typed.xml", XML);
+    }
+
+    @Test
+    public void testInt() {
+        assertEquals(OptionalInt.of(12), xml.selectInt("//price[@id='p1']/@amount"));
+        assertEquals(-3, xml.selectInt("//price[@id='p2']/@amount", 0));
+        assertEquals(42, xml.selectInt("//price[@id='p1']/text()", 0));
+        assertEquals(OptionalInt.of(2), xml.selectInt("count(//price)"));
+        assertEquals(OptionalInt.empty(), xml.selectInt("//price[@id='p3']/@amount"));
+        assertEquals(7, xml.selectInt("//price[@id='p3']/@amount", 7));
+    }
+
+    @Test
+    public void testLongAndDouble() {
+        assertEquals(OptionalLong.of(9000000000L), xml.selectLong("//price[@id='p1']/@big"));
+        assertEquals(5, xml.selectLong("//price[@id='p3']/@big", 5));
+        assertEquals(OptionalDouble.of(0.25), xml.selectDouble("//price[@id='p1']/@rate"));
+        assertEquals(9, xml.selectDouble("sum(//price/@amount)", 0), 0);
+        assertEquals(1.5, xml.selectDouble("//empty/@rate", 1.5), 0);
+    }
+
+    @Test
+    public void testBoolean() {
+        assertEquals(Optional.of(true), xml.selectBoolean("//price[@id='p1']/@active"));
+        assertEquals(Optional.of(false), xml.selectBoolean("//price[@id='p2']/@active"));
+        assertTrue(xml.selectBoolean("//price[@id='p3']/@active", true));
+    }
+
+    @Test
+    public void testRelativeToSelection() {
+        final XmlContext price = xml.select("//price[@id='p2']").get();
+        assertEquals(-3, price.selectInt("@amount", 0));
+    }
+
+    @Test(expected = FralaxException.class)
+    public void testNotANumber() {
+        xml.selectInt("//price[@id='p2']/text()");
+    }
+
+    @Test(expected = FralaxException.class)
+    public void testNotABoolean() {
+        xml.selectBoolean("//price[@id='p1']/@amount");
+    }
+
+    @Test(expected = FralaxException.class)
+    public void testMoreThanOneValue() {
+        xml.selectInt("//price/@amount");
+    }
+
+    @Test
+    public void testElementsAreNoValues() {
+        for (final String xpath : new String[]{"//empty", "//blank", "//number"}) {
+            assertElementIsRejected(() -> xml.selectInt(xpath));
+            assertElementIsRejected(() -> xml.selectLong(xpath, 0));
+            assertElementIsRejected(() -> xml.selectDouble(xpath));
+            assertElementIsRejected(() -> xml.selectBoolean(xpath, false));
+            assertElementIsRejected(() -> xml.selectInts(xpath));
+            assertElementIsRejected(() -> xml.selectLongs(xpath));
+            assertElementIsRejected(() -> xml.selectDoubles(xpath));
+        }
+        assertEquals(5, xml.selectInt("//number/text()", 0));
+        assertEquals(OptionalInt.empty(), xml.selectInt("//empty/text()"));
+        assertEquals(OptionalInt.empty(), xml.selectInt("//blank/text()"));
+    }
+
+    private static void assertElementIsRejected(final Runnable selection) {
+        try {
+            selection.run();
+            fail("an element should not be selected as value");
+        } catch (final FralaxException e) {
+            // expected
+        }
+    }
+}
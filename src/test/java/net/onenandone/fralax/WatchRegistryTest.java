@@ -0,0 +1,154 @@
+package net.onenandone.fralax;
+
+import net.onenandone.fralax.parser.VtdXmlParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class WatchRegistryTest {
+
+    private static final int FILES = 50;
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private FralaxWatchRegistry registry;
+
+    @Before
+    public void setUp() throws Exception {
+        registry = new FralaxWatchRegistry(2, 50, TimeUnit.MILLISECONDS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        registry.close();
+    }
+
+    @Test
+    public void testReloadsOnlyChangedFiles() throws Exception {
+        final List<String> files = new ArrayList<>();
+        for (int i = 0; i < FILES; i++) {
+            files.add(write(temporaryFolder.newFile("tenant" + i + ".xml"), "tenant" + i));
+        }
+        final List<ManagedXmlContext> contexts = new ArrayList<>();
+        for (final String file : files) {
+            contexts.add(registry.register(file, VtdXmlParser.class));
+        }
+        assertEquals(FILES, registry.getWatchedFiles().size());
+
+        write(contexts.get(7).getFile(), "changed");
+        awaitVersion(contexts.get(7), 2);
+
+        assertEquals("changed", contexts.get(7).select("/tenant/text()").get().asString());
+        for (int i = 0; i < FILES; i++) {
+            if (i != 7) {
+                assertEquals(1, contexts.get(i).getVersion());
+                assertEquals("tenant" + i, contexts.get(i).select("/tenant/text()").get().asString());
+            }
+        }
+    }
+
+    @Test
+    public void testUnregister() throws Exception {
+        final String firstFile = write(temporaryFolder.newFile("first.xml"), "first");
+        final String secondFile = write(temporaryFolder.newFile("second.xml"), "second");
+        final ManagedXmlContext first = registry.register(firstFile, VtdXmlParser.class);
+        final ManagedXmlContext second = registry.register(secondFile, VtdXmlParser.class);
+        first.close();
+        assertEquals(Collections.singleton(second.getFile().toPath()), registry.getWatchedFiles());
+
+        write(first.getFile(), "changed");
+        write(second.getFile(), "changed");
+        awaitVersion(second, 2);
+        Thread.sleep(200);
+        assertEquals(1, first.getVersion());
+        assertEquals("first", first.select("/tenant/text()").get().asString());
+    }
+
+    @Test
+    public void testRegisterSameFileTwice() throws Exception {
+        final String file = write(temporaryFolder.newFile("shared.xml"), "shared");
+        final ManagedXmlContext first = registry.register(file, VtdXmlParser.class);
+        final ManagedXmlContext second = registry.register(file, VtdXmlParser.class);
+        first.close();
+        assertEquals(1, registry.getWatchedFiles().size());
+
+        write(second.getFile(), "changed");
+        awaitVersion(second, 2);
+        assertEquals("changed", second.select("/tenant/text()").get().asString());
+    }
+
+    @Test
+    public void testChangeWhileRegisteringIsReloaded() throws Exception {
+        final String file = write(temporaryFolder.newFile("racing.xml"), "first");
+        final ManagedXmlContext context = registry.register(file, ChangingParser.class);
+        awaitVersion(context, 2);
+        assertEquals("changed while parsing", context.select("/tenant/text()").get().asString());
+    }
+
+    @Test
+    public void testReplacedFileIsReloaded() throws Exception {
+        final File file = temporaryFolder.newFile("replaced.xml");
+        final ManagedXmlContext context = registry.register(write(file, "first"), VtdXmlParser.class);
+        Files.delete(file.toPath());
+        Thread.sleep(200);
+        assertEquals(1, context.getVersion());
+        assertFalse(context.getReloadFailure().isPresent());
+
+        write(file, "replaced");
+        awaitVersion(context, 2);
+        assertEquals("replaced", context.select("/tenant/text()").get().asString());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testDefaultRegistryCanNotBeClosed() throws Exception {
+        FralaxWatchRegistry.getDefault().close();
+    }
+
+    /**
+     * Changes the file right after its first parse, before the registry watches it.
+     */
+    public static class ChangingParser implements XmlParser {
+
+        private static final AtomicBoolean CHANGED = new AtomicBoolean();
+
+        @Override
+        public XmlContext parse(final String file) {
+            final XmlContext xml = new VtdXmlParser().parse(file);
+            if (CHANGED.compareAndSet(false, true)) {
+                try {
+                    write(new File(file), "changed while parsing");
+                } catch (final Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return xml;
+        }
+    }
+
+    private static String write(final File file, final String tenant) throws Exception {
+        Files.write(file.toPath(), ("<tenant>" + tenant + "</tenant>").getBytes(StandardCharsets.UTF_8));
+        return file.getPath();
+    }
+
+    private static void awaitVersion(final ManagedXmlContext context, final long version) throws Exception {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (context.getVersion() < version && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(version, context.getVersion());
+    }
+}
@@ -0,0 +1,63 @@
+package net.onenandone.fralax;
+
+import net.onenandone.fralax.parser.VtdHugeXmlParser;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class WriteToTest {
+
+    private static final String FILE = FralaxTest.class.getResource("/books-qualified.xml").getFile();
+
+    @Test
+    public void testWriteElementToOutputStream() throws Exception {
+        final XmlContext book = Fralax.parse(FILE).select("/b:books/b:book[2]").get();
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        book.writeTo(outputStream);
+
+        assertEquals(book.asFragment(), new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testWriteDocumentToChannel() throws Exception {
+        final XmlContext xml = Fralax.parse(FILE);
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        xml.writeTo(Channels.newChannel(outputStream));
+
+        assertEquals(xml.asString(), new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testWriteElementToAppendable() throws Exception {
+        final XmlContext book = Fralax.parse(FILE).select("/b:books/b:book[1]").get();
+        final StringWriter writer = new StringWriter();
+        book.writeTo(writer);
+
+        assertEquals(book.asFragment(), writer.toString());
+    }
+
+    @Test
+    public void testWriteValueToAppendable() throws Exception {
+        final StringBuilder builder = new StringBuilder();
+        Fralax.parse(FILE).select("/b:books/b:book[1]/@id").get().writeTo(builder);
+
+        assertEquals("bk001", builder.toString());
+    }
+
+    @Test
+    public void testWriteHugeElement() throws Exception {
+        final XmlContext book = Fralax.parse(FILE, VtdHugeXmlParser.class).select("/b:books/b:book[2]").get();
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        book.writeTo(outputStream);
+        final StringBuilder builder = new StringBuilder();
+        book.writeTo(builder);
+
+        assertEquals(Fralax.parse(FILE).select("/b:books/b:book[2]").get().asFragment(), new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(book.asFragment(), builder.toString());
+    }
+}